@@ -0,0 +1,70 @@
+/*
+ * Copyright 2014 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package edu.cmu.lti.oaqa.lapps.benchmark;
+
+import edu.cmu.lti.oaqa.lapps.Warmup;
+import org.lappsgrid.serialization.Data;
+
+import java.util.List;
+
+import static org.lappsgrid.discriminator.Discriminators.Uri;
+
+/**
+ * Deterministic synthetic English documents of the sizes the services see in production.
+ */
+public final class Documents {
+
+    public enum Size {
+        TWEET(140), PARAGRAPH(800), ARTICLE(5000), CHAPTER(50000);
+
+        final int length;
+
+        Size(int length) {
+            this.length = length;
+        }
+    }
+
+    /**
+     * The sentences of the warm-up corpus, so benchmarks and warm-up exercise the same text.
+     */
+    private static final List<String> SENTENCES = Warmup.sentences();
+
+    private Documents() {
+    }
+
+    /**
+     * Returns whole sentences, cycled in a fixed order, up to about {@code size} characters.
+     */
+    public static String text(Size size) {
+        StringBuilder text = new StringBuilder(size.length + 100);
+        for (int i = 0; text.length() < size.length; i++) {
+            if (text.length() > 0) {
+                text.append(' ');
+            }
+            text.append(SENTENCES.get(i % SENTENCES.size()));
+        }
+        return text.toString();
+    }
+
+    /**
+     * Returns the text wrapped as a {@code Uri.TEXT} request.
+     */
+    public static String textInput(Size size) {
+        return new Data<>(Uri.TEXT, text(size)).asJson();
+    }
+}
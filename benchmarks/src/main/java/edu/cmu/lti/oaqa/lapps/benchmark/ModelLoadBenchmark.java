@@ -0,0 +1,75 @@
+/*
+ * Copyright 2014 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package edu.cmu.lti.oaqa.lapps.benchmark;
+
+import edu.cmu.lti.oaqa.lapps.LingpipeNER;
+import edu.cmu.lti.oaqa.lapps.ModelRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cold-start cost of the model load paths behind {@code loadChucker} and
+ * {@code loadTagger}. Each invocation evicts the model from the {@link ModelRegistry}
+ * first, so every measurement deserializes it again.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@Fork(value = 3, jvmArgsAppend = {"-Xms1g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class ModelLoadBenchmark {
+
+    @Param({"/models/ne-en-news-muc6.AbstractCharLmRescoringChunker",
+            "/models/pos-en-general-brown.HiddenMarkovModel"})
+    public String model;
+
+    private URL url;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        url = LingpipeNER.class.getResource(model);
+        if (url == null) {
+            throw new IOException("Model not found, run download_models.sh first: " + model);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void evict() {
+        ModelRegistry.evict(url);
+    }
+
+    @Benchmark
+    public Object load() throws IOException, ClassNotFoundException {
+        return ModelRegistry.get(url, Object.class);
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2014 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package edu.cmu.lti.oaqa.lapps.benchmark;
+
+import edu.cmu.lti.oaqa.lapps.LingpipeNER;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of the NER service in full rescoring mode (threshold 0) and in confidence mode
+ * at increasing thresholds. {@link NerRecallCurve} reports the recall of each setting.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class NerConfidenceBenchmark {
+
+    @Param({"0", "0.2", "0.5", "0.8", "0.95"})
+    public double threshold;
+
+    @Param({"PARAGRAPH", "ARTICLE"})
+    public Documents.Size size;
+
+    private LingpipeNER ner;
+
+    private String input;
+
+    @Setup
+    public void setUp() throws Exception {
+        ner = new LingpipeNER();
+        ner.setConfidenceThreshold(threshold);
+        input = Documents.textInput(size);
+    }
+
+    @Benchmark
+    public String execute() {
+        return ner.execute(input);
+    }
+}
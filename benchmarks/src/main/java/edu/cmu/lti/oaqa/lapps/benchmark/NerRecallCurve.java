@@ -0,0 +1,87 @@
+/*
+ * Copyright 2014 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package edu.cmu.lti.oaqa.lapps.benchmark;
+
+import edu.cmu.lti.oaqa.lapps.LingpipeNER;
+import org.lappsgrid.serialization.DataContainer;
+import org.lappsgrid.serialization.Serializer;
+import org.lappsgrid.serialization.lif.Annotation;
+import org.lappsgrid.vocabulary.Features;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Prints the latency/recall curve of confidence-mode NER on the {@link Documents} corpus.
+ * Recall is measured against the entities found in full rescoring mode.
+ * <pre>
+ * java -cp target/benchmarks.jar edu.cmu.lti.oaqa.lapps.benchmark.NerRecallCurve
+ * </pre>
+ */
+public final class NerRecallCurve {
+
+    private static final double[] THRESHOLDS = {0.0, 0.05, 0.1, 0.2, 0.3, 0.5, 0.7, 0.8, 0.9, 0.95, 0.99};
+
+    private static final int WARMUP = 20;
+
+    private static final int RUNS = 50;
+
+    private NerRecallCurve() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        String input = Documents.textInput(Documents.Size.ARTICLE);
+        LingpipeNER ner = new LingpipeNER();
+        Set<String> reference = entities(ner.execute(input));
+
+        System.out.println("threshold\tms/doc\tentities\trecall\tprecision");
+        for (double threshold : THRESHOLDS) {
+            ner.setConfidenceThreshold(threshold);
+            for (int i = 0; i < WARMUP; i++) {
+                ner.execute(input);
+            }
+            String output = null;
+            long startTime = System.nanoTime();
+            for (int i = 0; i < RUNS; i++) {
+                output = ner.execute(input);
+            }
+            double millis = (System.nanoTime() - startTime) / 1e6 / RUNS;
+
+            Set<String> found = entities(output);
+            int matched = 0;
+            for (String entity : found) {
+                if (reference.contains(entity)) {
+                    matched++;
+                }
+            }
+            System.out.printf("%.2f\t%.2f\t%d\t%.3f\t%.3f%n", threshold, millis, found.size(),
+                    reference.isEmpty() ? 1.0 : (double) matched / reference.size(),
+                    found.isEmpty() ? 1.0 : (double) matched / found.size());
+        }
+    }
+
+    private static Set<String> entities(String json) {
+        DataContainer data = Serializer.parse(json, DataContainer.class);
+        Set<String> entities = new HashSet<>();
+        for (Annotation annotation : data.getPayload().getViews().get(0).getAnnotations()) {
+            entities.add(annotation.getStart() + ":" + annotation.getEnd() + ":"
+                    + annotation.getFeature(Features.Token.TYPE));
+        }
+        return entities;
+    }
+}
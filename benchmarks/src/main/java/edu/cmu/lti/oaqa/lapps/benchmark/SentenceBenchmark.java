@@ -0,0 +1,77 @@
+/*
+ * Copyright 2014 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package edu.cmu.lti.oaqa.lapps.benchmark;
+
+import com.aliasi.chunk.Chunking;
+import com.aliasi.sentences.IndoEuropeanSentenceModel;
+import com.aliasi.sentences.SentenceChunker;
+import com.aliasi.tokenizer.IndoEuropeanTokenizerFactory;
+import edu.cmu.lti.oaqa.lapps.SentenceScanner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of sentence splitting with the Lingpipe sentence chunker and with the
+ * scanner that only runs the sentence model around stop characters.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class SentenceBenchmark {
+
+    @Param({"PARAGRAPH", "ARTICLE"})
+    public Documents.Size size;
+
+    private SentenceChunker chunker;
+
+    private SentenceScanner scanner;
+
+    private char[] text;
+
+    @Setup
+    public void setUp() {
+        IndoEuropeanSentenceModel model = new IndoEuropeanSentenceModel();
+        chunker = new SentenceChunker(IndoEuropeanTokenizerFactory.INSTANCE, model);
+        scanner = new SentenceScanner(IndoEuropeanTokenizerFactory.INSTANCE, model);
+        text = Documents.text(size).toCharArray();
+    }
+
+    @Benchmark
+    public Chunking chunker() {
+        return chunker.chunk(text, 0, text.length);
+    }
+
+    @Benchmark
+    public Chunking scanner() {
+        return scanner.chunk(text, 0, text.length);
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2014 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package edu.cmu.lti.oaqa.lapps.benchmark;
+
+import edu.cmu.lti.oaqa.lapps.LingpipeNER;
+import edu.cmu.lti.oaqa.lapps.LingpipePipeline;
+import edu.cmu.lti.oaqa.lapps.LingpipeSentenceSpliter;
+import edu.cmu.lti.oaqa.lapps.LingpipeTagger;
+import edu.cmu.lti.oaqa.lapps.LingpipeTokenizer;
+import org.lappsgrid.api.ProcessingService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@code execute} for each service and document size. The tagger is fed
+ * the tokenizer's output, as it is in a deployed chain; the other services get text.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class ServiceBenchmark {
+
+    @Param({"tokenizer", "splitter", "tagger", "ner", "pipeline"})
+    public String service;
+
+    @Param({"TWEET", "PARAGRAPH", "ARTICLE", "CHAPTER"})
+    public Documents.Size size;
+
+    private ProcessingService target;
+
+    private String input;
+
+    @Setup
+    public void setUp() throws Exception {
+        input = Documents.textInput(size);
+        switch (service) {
+            case "tokenizer":
+                target = new LingpipeTokenizer();
+                break;
+            case "splitter":
+                target = new LingpipeSentenceSpliter();
+                break;
+            case "tagger":
+                target = new LingpipeTagger();
+                input = new LingpipeTokenizer().execute(input);
+                break;
+            case "ner":
+                target = new LingpipeNER();
+                break;
+            case "pipeline":
+                target = new LingpipePipeline();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown service: " + service);
+        }
+    }
+
+    @Benchmark
+    public String execute() {
+        return target.execute(input);
+    }
+}
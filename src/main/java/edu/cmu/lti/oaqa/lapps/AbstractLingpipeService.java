@@ -1,10 +1,26 @@
 package edu.cmu.lti.oaqa.lapps;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import org.lappsgrid.api.ProcessingService;
 import org.lappsgrid.discriminator.Discriminators;
 import org.lappsgrid.metadata.IOSpecification;
 import org.lappsgrid.metadata.ServiceMetadata;
 import org.lappsgrid.serialization.Data;
+import org.lappsgrid.serialization.DataContainer;
+import org.lappsgrid.serialization.Serializer;
+import org.lappsgrid.serialization.lif.Container;
+import org.lappsgrid.serialization.lif.View;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Semaphore;
+
+import static edu.cmu.lti.oaqa.lapps.ServiceMetrics.Stage;
+import static org.lappsgrid.discriminator.Discriminators.Uri;
 
 /**
  * @author Di Wang.
@@ -14,8 +30,33 @@ abstract public class AbstractLingpipeService implements ProcessingService {
     //TODO: add to vocab
     protected static final String AGPL_LICENCE = "http://vocab.lappsgrid.org/ns/license#agpl-3.0";
 
+    /**
+     * Worker pool shared by all services for splitting a single document across cores.
+     * Bounded to one worker per core, so concurrent requests queue up instead of
+     * oversubscribing the CPU.
+     */
+    protected static final ForkJoinPool WORKERS = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    /**
+     * System property bounding how many virtual threads run inference at once; one per
+     * core by default.
+     */
+    public static final String INFERENCE_THREADS = "lingpipe.inferenceThreads";
+
+    /**
+     * Inference is CPU-bound and never yields its carrier thread. Admitting no more virtual
+     * threads to it than there are carriers leaves carriers free for the virtual threads
+     * that wait on I/O. Platform threads are bounded by their pools and skip it.
+     */
+    private static final Semaphore INFERENCE = new Semaphore(
+            Integer.getInteger(INFERENCE_THREADS, Runtime.getRuntime().availableProcessors()));
+
     ServiceMetadata metadata;
 
+    private final ServiceMetrics metrics;
+
+    private ResultCache cache;
+
     public AbstractLingpipeService() {
         // Create a metadata object
         metadata = new ServiceMetadata();
@@ -25,6 +66,8 @@ abstract public class AbstractLingpipeService implements ProcessingService {
         metadata.setVersion("1.0.0-SNAPSHOT");
         metadata.setVendor("http://www.lappsgrid.org");
         metadata.setLicense(AGPL_LICENCE);
+
+        metrics = ServiceMetrics.of(getClass());
     }
 
     @Override
@@ -33,4 +76,310 @@ abstract public class AbstractLingpipeService implements ProcessingService {
         Data<ServiceMetadata> data = new Data<>(Discriminators.Uri.META, this.metadata);
         return data.asJson();
     }
+
+    /**
+     * Returns the request counters and latency histograms shared by all instances of
+     * this service class.
+     */
+    public ServiceMetrics getMetrics() {
+        return metrics;
+    }
+
+    public ResultCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Puts a result cache in front of {@link #execute(String)}. A repeated request is
+     * answered from the cache without running the model; error results are not cached.
+     * Services may share a cache.
+     */
+    public void setCache(ResultCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Runs a {@link Warmup} on this service, e.g. as its Spring init method, so it does not
+     * serve its first requests with cold code.
+     */
+    public Warmup.Result warmUp() {
+        return Warmup.run(this);
+    }
+
+    /**
+     * Identifies the model, and any setting that changes the output, in cache keys.
+     */
+    protected String getModelId() {
+        return getClass().getName();
+    }
+
+    @Override
+    public String execute(String input) {
+        ResultCache cache = this.cache;
+        if (cache == null) {
+            return process(input);
+        }
+        // The input covers both the text and the views already in the document.
+        String key = ResultCache.key(getClass().getName(), getModelId(), input);
+        String output = cache.get(key);
+        if (output == null) {
+            output = process(input);
+            // Errors are not kept: they may be transient, e.g. a model that failed to load.
+            if (!isError(output)) {
+                cache.put(key, output);
+            }
+        }
+        return output;
+    }
+
+    private static boolean isError(String output) {
+        try {
+            return Uri.ERROR.equals(StreamingLif.discriminator(output));
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Runs the service on one document; {@link #execute(String)} without the cache.
+     */
+    protected String process(String input) {
+        return process(input, metrics);
+    }
+
+    /**
+     * {@link #process(String)}, recording into the given metrics.
+     */
+    String process(String input, ServiceMetrics metrics) {
+        final long startTime = System.nanoTime();
+
+        // Step #1: When only the text is needed, write plain text input straight to LIF,
+        // and for LIF input copy the existing views through untouched and append the new one.
+        if (isTextOnly()) {
+            try {
+                final Inference inference = new Inference();
+                StreamingLif.ViewWriter writer = new StreamingLif.ViewWriter() {
+                    @Override
+                    public void inputRead() {
+                        inference.parsed = System.nanoTime();
+                    }
+
+                    @Override
+                    public void write(Container scratch, JsonGenerator out) throws IOException {
+                        boolean admitted = enterInference();
+                        try {
+                            long time = System.nanoTime();
+                            inference.annotations = writeView(scratch, out);
+                            inference.chars = scratch.getText().length();
+                            inference.nanos = System.nanoTime() - time;
+                        } finally {
+                            exitInference(admitted);
+                        }
+                    }
+                };
+                String output = StreamingLif.textToLif(input, writer);
+                if (output == null) {
+                    output = StreamingLif.appendView(input, writer, usesSentenceView());
+                }
+                if (output != null) {
+                    long nanos = System.nanoTime() - startTime;
+                    long parse = inference.parsed - startTime;
+                    metrics.record(Stage.PARSE, parse);
+                    metrics.record(Stage.INFERENCE, inference.nanos);
+                    metrics.record(Stage.SERIALIZE, nanos - parse - inference.nanos);
+                    metrics.recordRequest(nanos, inference.chars, inference.annotations);
+                    return output;
+                }
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                metrics.recordError();
+                return error(e.getMessage());
+            } catch (IOException e) {
+                // Not the JSON we expected, the regular path below reports it.
+            }
+        }
+
+        // Step #2: Parse the input.
+        Data data = Serializer.parse(input, Data.class);
+        long time = System.nanoTime();
+        metrics.record(Stage.PARSE, time - startTime);
+
+        // Step #3: Check the discriminator
+        final String discriminator = data.getDiscriminator();
+        if (discriminator.equals(Uri.ERROR)) {
+            // Return the input unchanged.
+            return input;
+        }
+
+        // Step #4: Extract the text.
+        Container container = null;
+        if (discriminator.equals(Uri.TEXT)) {
+            container = new Container();
+            container.setText(data.getPayload().toString());
+        } else if (discriminator.equals(Uri.LAPPS)) {
+            container = new Container((Map) data.getPayload());
+        } else {
+            // This is a format we don't accept.
+            metrics.recordError();
+            String message = String.format("Unsupported discriminator type: %s", discriminator);
+            return error(message);
+        }
+
+        String text = container.getText();
+        if (text == null || text.isEmpty()) {
+            return input;
+        }
+        time = metrics.lap(Stage.CONTAINER, time);
+
+        // Step #5: Add a view with the annotations.
+        View view;
+        boolean admitted = enterInference();
+        try {
+            view = annotate(container);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            metrics.recordError();
+            return error(e.getMessage());
+        } finally {
+            exitInference(admitted);
+        }
+        time = metrics.lap(Stage.INFERENCE, time);
+
+        // Step #6: Create a DataContainer with the result.
+        data = new DataContainer(container);
+
+        // Step #7: Serialize the data object and return the JSON.
+        String output = data.asJson();
+        time = metrics.lap(Stage.SERIALIZE, time);
+        List<?> annotations = view.getAnnotations();
+        metrics.recordRequest(time - startTime, text.length(), annotations == null ? 0 : annotations.size());
+        return output;
+    }
+
+    /**
+     * {@link #execute(String)} for a document in the {@link BinaryLif} encoding; the result
+     * is encoded the same way.
+     */
+    public byte[] executeBinary(byte[] input) {
+        String output;
+        try {
+            output = execute(BinaryLif.decode(input));
+        } catch (IOException e) {
+            output = error(String.format("Unable to decode binary LIF: %s", e.getMessage()));
+        }
+        try {
+            return BinaryLif.encode(output);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to encode binary LIF", e);
+        }
+    }
+
+    /**
+     * Processes a JSON array of {@code Data} documents, as accepted one at a time by
+     * {@link #execute(String)}, concurrently on the shared worker pool.
+     * <p>
+     * Returns a JSON array holding one result per input document, in input order. A
+     * document that cannot be processed gets an error {@code Data} in its slot without
+     * affecting the others.
+     */
+    public String executeBatch(String input) {
+        List<String> documents;
+        try {
+            documents = StreamingLif.splitArray(input);
+        } catch (IOException e) {
+            return error(String.format("Unable to parse batch: %s", e.getMessage()));
+        }
+
+        List<ForkJoinTask<String>> tasks = new ArrayList<>(documents.size());
+        for (int i = 0; i < documents.size(); i++) {
+            final int index = i;
+            final String document = documents.get(i);
+            tasks.add(WORKERS.submit(() -> {
+                try {
+                    return execute(document);
+                } catch (RuntimeException e) {
+                    return error(String.format("Unable to process document %d: %s", index, e));
+                }
+            }));
+        }
+
+        StringBuilder output = new StringBuilder("[");
+        for (int i = 0; i < tasks.size(); i++) {
+            if (i > 0) {
+                output.append(',');
+            }
+            output.append(tasks.get(i).join());
+        }
+        return output.append(']').toString();
+    }
+
+    /**
+     * Adds a new view with this service's annotations to the container, whose text is
+     * never empty.
+     *
+     * @return the new view
+     * @throws IllegalArgumentException if the container lacks annotations the service requires
+     * @throws IllegalStateException    if the underlying Lingpipe component fails
+     */
+    protected abstract View annotate(Container container);
+
+    /**
+     * Returns true if {@link #annotate(Container)} reads nothing but the text of the
+     * container, which lets LIF input take the streaming path.
+     */
+    protected boolean isTextOnly() {
+        return true;
+    }
+
+    /**
+     * Returns true if {@link #annotate(Container)} also reads the sentences of a
+     * {@link LingpipeSentenceSpliter} view, which the streaming path then puts in the
+     * scratch container.
+     */
+    protected boolean usesSentenceView() {
+        return false;
+    }
+
+    /**
+     * Writes the view {@link #annotate(Container)} adds to the scratch container as a JSON
+     * value. Subclasses may write the JSON directly instead of building the view first.
+     *
+     * @return the number of annotations written
+     */
+    protected int writeView(Container scratch, JsonGenerator out) throws IOException {
+        View view = annotate(scratch);
+        out.writeRawValue(Serializer.toJson(view));
+        return view.getAnnotations() == null ? 0 : view.getAnnotations().size();
+    }
+
+    /**
+     * Waits for an inference slot if the calling thread is virtual.
+     *
+     * @return whether a slot was taken, to pass to {@link #exitInference(boolean)}
+     */
+    private static boolean enterInference() {
+        if (!VirtualThreads.isVirtual(Thread.currentThread())) {
+            return false;
+        }
+        INFERENCE.acquireUninterruptibly();
+        return true;
+    }
+
+    private static void exitInference(boolean admitted) {
+        if (admitted) {
+            INFERENCE.release();
+        }
+    }
+
+    protected static String error(String message) {
+        return new Data<String>(Uri.ERROR, message).asJson();
+    }
+
+    /**
+     * What the streaming path learns about the document while writing the view.
+     */
+    private static final class Inference {
+        long parsed;
+        long nanos;
+        int chars;
+        int annotations;
+    }
 }
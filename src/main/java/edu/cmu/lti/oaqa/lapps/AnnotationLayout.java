@@ -0,0 +1,123 @@
+/*
+ * Copyright 2014 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package edu.cmu.lti.oaqa.lapps;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.lappsgrid.serialization.Serializer;
+import org.lappsgrid.serialization.lif.Annotation;
+import org.lappsgrid.serialization.lif.View;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The JSON layout of one kind of annotation, learned once from the LIF serializer, so
+ * that annotations can be written straight from their offsets without creating an
+ * {@link Annotation} per token.
+ * <p>
+ * The layout serializes a template annotation with marker offsets and a marker feature
+ * value, then records, field by field, whether the serializer wrote the start, the end,
+ * the features, or a value that is the same for every annotation (id, label).
+ */
+final class AnnotationLayout {
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    private static final long START_MARK = 1357924680L;
+
+    private static final long END_MARK = 2468013579L;
+
+    private static final String VALUE_MARK = "\u0000value\u0000";
+
+    private enum Kind {CONSTANT, START, END, FEATURES}
+
+    private final String feature;
+
+    private final List<String> names = new ArrayList<>();
+
+    private final List<Kind> kinds = new ArrayList<>();
+
+    private final List<String> constants = new ArrayList<>();
+
+    /**
+     * @param id      the id every annotation gets
+     * @param label   the annotation type, e.g. {@code Uri.TOKEN}
+     * @param feature the single feature written for each annotation
+     */
+    AnnotationLayout(String id, String label, String feature) {
+        this.feature = feature;
+        Annotation template = new View().newAnnotation(id, label, START_MARK, END_MARK);
+        template.addFeature(feature, VALUE_MARK);
+        try (JsonParser parser = FACTORY.createParser(Serializer.toJson(template))) {
+            parser.nextToken();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                StringWriter json = new StringWriter();
+                try (JsonGenerator generator = FACTORY.createGenerator(json)) {
+                    generator.copyCurrentStructure(parser);
+                }
+                names.add(name);
+                if (value == JsonToken.VALUE_NUMBER_INT && json.toString().equals(String.valueOf(START_MARK))) {
+                    kinds.add(Kind.START);
+                } else if (value == JsonToken.VALUE_NUMBER_INT && json.toString().equals(String.valueOf(END_MARK))) {
+                    kinds.add(Kind.END);
+                } else if (value == JsonToken.START_OBJECT && json.toString().contains("\\u0000value\\u0000")) {
+                    kinds.add(Kind.FEATURES);
+                } else {
+                    kinds.add(Kind.CONSTANT);
+                }
+                constants.add(json.toString());
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to serialize a template annotation", e);
+        }
+    }
+
+    /**
+     * Writes one annotation whose feature value is {@code cs[start, end)}.
+     */
+    void write(JsonGenerator out, int start, int end, char[] cs) throws IOException {
+        out.writeStartObject();
+        for (int i = 0; i < names.size(); i++) {
+            out.writeFieldName(names.get(i));
+            switch (kinds.get(i)) {
+                case START:
+                    out.writeNumber(start);
+                    break;
+                case END:
+                    out.writeNumber(end);
+                    break;
+                case FEATURES:
+                    out.writeStartObject();
+                    out.writeFieldName(feature);
+                    out.writeString(cs, start, end - start);
+                    out.writeEndObject();
+                    break;
+                default:
+                    out.writeRawValue(constants.get(i));
+            }
+        }
+        out.writeEndObject();
+    }
+}
@@ -0,0 +1,410 @@
+/*
+ * Copyright 2014 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package edu.cmu.lti.oaqa.lapps;
+
+import org.lappsgrid.api.ProcessingService;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking HTTP front end for the services: {@code POST /async/<service>} runs
+ * {@code execute} on the request body, {@code GET /async/<service>} returns the metadata.
+ * {@code <service>} is the simple class name, e.g. {@code LingpipeNER}.
+ * <p>
+ * Container threads only move bytes. The body is read with a {@link ReadListener}, the
+ * request is queued to a worker pool with one thread per core, and the result is written
+ * with a {@link WriteListener}, so slow clients tie up neither container threads nor
+ * workers. Load beyond what the pool can absorb is refused straight away: with 429 when
+ * more than {@code maxPending} requests are in flight, with 503 when the worker queue is
+ * full. Both carry a {@code Retry-After} header.
+ * <p>
+ * On Java 21 and later each request runs on its own virtual thread instead, unless the
+ * {@code virtualThreads} init parameter is {@code false}. Then there is no worker queue,
+ * only the {@code maxPending} limit, and {@link AbstractLingpipeService} bounds how many
+ * of those threads run inference at once.
+ * <p>
+ * A body sent as {@link BinaryLif#MEDIA_TYPE} is decoded from the binary LIF encoding,
+ * and the result is encoded the same way when the request is binary, or its
+ * {@code Accept} header names the binary type with a q value above 0 and at least that
+ * of JSON.
+ * <p>
+ * The services are the instances from {@link Services}, which the bean definitions in
+ * {@code WEB-INF/serviceimpl} configure, so their settings apply here too. Until the
+ * service container has read those definitions a service runs with its default settings.
+ * <p>
+ * Init parameters: {@code services} (comma-separated class names), {@code virtualThreads},
+ * {@code queueCapacity}, {@code maxPending}, {@code maxRequestBytes} and
+ * {@code timeoutMillis}.
+ */
+public class AsyncServiceServlet extends HttpServlet {
+
+    static final int SC_TOO_MANY_REQUESTS = 429;
+
+    static final String DEFAULT_SERVICES = LingpipeTokenizer.class.getName() + ","
+            + LingpipeSentenceSpliter.class.getName() + "," + LingpipeTagger.class.getName() + ","
+            + LingpipeNER.class.getName() + "," + LingpipePipeline.class.getName();
+
+    private static final int CHUNK_SIZE = 8192;
+
+    private final Map<String, ProcessingService> services = new LinkedHashMap<>();
+
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private ExecutorService workers;
+
+    private int maxPending;
+
+    private int maxRequestBytes;
+
+    private long timeoutMillis;
+
+    @Override
+    public void init() throws ServletException {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int queueCapacity = intParameter("queueCapacity", 4 * cores);
+        maxPending = intParameter("maxPending", 2 * queueCapacity);
+        maxRequestBytes = intParameter("maxRequestBytes", 16 << 20);
+        timeoutMillis = intParameter("timeoutMillis", 60000);
+
+        String classNames = getInitParameter("services");
+        for (String className : (classNames == null ? DEFAULT_SERVICES : classNames).split(",")) {
+            className = className.trim();
+            try {
+                ProcessingService service = Services.get(className);
+                services.put(className.substring(className.lastIndexOf('.') + 1), service);
+            } catch (ReflectiveOperationException | ClassCastException e) {
+                throw new ServletException("Unable to create service " + className, e);
+            }
+        }
+
+        String virtualThreads = getInitParameter("virtualThreads");
+        if (virtualThreads == null || Boolean.parseBoolean(virtualThreads.trim())) {
+            if (VirtualThreads.isSupported()) {
+                workers = VirtualThreads.newPerTaskExecutor("lingpipe-request-");
+                return;
+            }
+            if (virtualThreads != null) {
+                log("Virtual threads need Java 21 or later, using a worker pool instead");
+            }
+        }
+        AtomicInteger threads = new AtomicInteger();
+        workers = new ThreadPoolExecutor(cores, cores, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "lingpipe-worker-" + threads.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    @Override
+    public void destroy() {
+        workers.shutdown();
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        ProcessingService service = findService(request, response);
+        if (service != null) {
+            response.setContentType("application/json");
+            response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+            response.getWriter().write(service.getMetadata());
+        }
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        final ProcessingService service = findService(request, response);
+        if (service == null) {
+            return;
+        }
+        if (request.getContentLengthLong() > maxRequestBytes) {
+            response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+            return;
+        }
+        if (pending.incrementAndGet() > maxPending) {
+            pending.decrementAndGet();
+            refuse(response, SC_TOO_MANY_REQUESTS);
+            return;
+        }
+
+        AsyncContext context = request.startAsync();
+        context.setTimeout(timeoutMillis);
+        Exchange exchange = new Exchange(context, service);
+        context.addListener(exchange);
+        request.getInputStream().setReadListener(exchange);
+    }
+
+    private ProcessingService findService(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String path = request.getPathInfo();
+        ProcessingService service = path == null ? null : services.get(path.substring(1));
+        if (service == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "Available services: " + services.keySet());
+        }
+        return service;
+    }
+
+    private static boolean isBinary(String contentType) {
+        return contentType != null && BinaryLif.MEDIA_TYPE.equalsIgnoreCase(contentType.split(";")[0].trim());
+    }
+
+    /**
+     * Whether a client sending the {@code Accept} header prefers binary LIF to JSON.
+     * Wildcards do not count for binary LIF, which only clients that know it can read.
+     */
+    static boolean acceptsBinary(String accept) {
+        if (accept == null) {
+            return false;
+        }
+        double binary = quality(accept, BinaryLif.MEDIA_TYPE, false);
+        return binary > 0.0 && binary >= quality(accept, "application/json", true);
+    }
+
+    /**
+     * Returns the q value the {@code Accept} header gives the media type, taken from the
+     * most specific range that matches it, or 0 if none does.
+     */
+    static double quality(String accept, String mediaType, boolean wildcards) {
+        double quality = 0.0;
+        int specificity = -1;
+        for (String range : accept.split(",")) {
+            String[] parameters = range.split(";");
+            String type = parameters[0].trim().toLowerCase(Locale.ROOT);
+            int match;
+            if (type.equals(mediaType)) {
+                match = 2;
+            } else if (wildcards && type.endsWith("/*") && !type.equals("*/*")
+                    && mediaType.startsWith(type.substring(0, type.length() - 1))) {
+                match = 1;
+            } else if (wildcards && type.equals("*/*")) {
+                match = 0;
+            } else {
+                continue;
+            }
+            if (match > specificity) {
+                specificity = match;
+                quality = q(parameters);
+            }
+        }
+        return quality;
+    }
+
+    private static double q(String[] parameters) {
+        for (int i = 1; i < parameters.length; i++) {
+            String[] parameter = parameters[i].split("=", 2);
+            if (parameter.length == 2 && parameter[0].trim().equalsIgnoreCase("q")) {
+                try {
+                    return Math.max(0.0, Math.min(1.0, Double.parseDouble(parameter[1].trim())));
+                } catch (NumberFormatException e) {
+                    return 0.0;
+                }
+            }
+        }
+        return 1.0;
+    }
+
+    private static void refuse(HttpServletResponse response, int status) throws IOException {
+        if (status == SC_TOO_MANY_REQUESTS || status == HttpServletResponse.SC_SERVICE_UNAVAILABLE) {
+            response.setHeader("Retry-After", "1");
+        }
+        response.sendError(status);
+    }
+
+    private int intParameter(String name, int defaultValue) throws ServletException {
+        String value = getInitParameter(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new ServletException(String.format("Invalid init parameter %s: %s", name, value), e);
+        }
+    }
+
+    /**
+     * One request, from the first byte read to the last byte written.
+     */
+    private final class Exchange implements ReadListener, WriteListener, AsyncListener, Runnable {
+
+        private final AsyncContext context;
+
+        private final ProcessingService service;
+
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        private final byte[] buffer = new byte[CHUNK_SIZE];
+
+        private final AtomicInteger released = new AtomicInteger();
+
+        private ServletInputStream in;
+
+        private ServletOutputStream out;
+
+        private byte[] output;
+
+        private int written;
+
+        Exchange(AsyncContext context, ProcessingService service) {
+            this.context = context;
+            this.service = service;
+        }
+
+        @Override
+        public void onDataAvailable() throws IOException {
+            if (in == null) {
+                in = context.getRequest().getInputStream();
+            }
+            while (in.isReady() && !in.isFinished()) {
+                int n = in.read(buffer);
+                if (n < 0) {
+                    break;
+                }
+                body.write(buffer, 0, n);
+                if (body.size() > maxRequestBytes) {
+                    fail(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public void onAllDataRead() throws IOException {
+            try {
+                workers.execute(this);
+            } catch (RejectedExecutionException e) {
+                fail(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            }
+        }
+
+        /**
+         * Runs on a worker or virtual thread: the inference, then hands the output back to
+         * the container.
+         */
+        @Override
+        public void run() {
+            HttpServletRequest request = (HttpServletRequest) context.getRequest();
+            boolean binaryIn = isBinary(request.getContentType());
+            boolean binaryOut = binaryIn || acceptsBinary(request.getHeader("Accept"));
+            String result;
+            try {
+                byte[] bytes = body.toByteArray();
+                result = service.execute(binaryIn ? BinaryLif.decode(bytes) : new String(bytes, StandardCharsets.UTF_8));
+                output = binaryOut ? BinaryLif.encode(result) : result.getBytes(StandardCharsets.UTF_8);
+            } catch (IOException | RuntimeException e) {
+                result = AbstractLingpipeService.error("Unable to process request: " + e);
+                binaryOut = false;
+                output = result.getBytes(StandardCharsets.UTF_8);
+            }
+            try {
+                HttpServletResponse response = (HttpServletResponse) context.getResponse();
+                if (binaryOut) {
+                    response.setContentType(BinaryLif.MEDIA_TYPE);
+                } else {
+                    response.setContentType("application/json");
+                    response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+                }
+                response.setContentLength(output.length);
+                out = response.getOutputStream();
+                out.setWriteListener(this);
+            } catch (IOException | IllegalStateException e) {
+                release();
+            }
+        }
+
+        @Override
+        public void onWritePossible() throws IOException {
+            while (out.isReady()) {
+                if (written == output.length) {
+                    release();
+                    return;
+                }
+                int n = Math.min(CHUNK_SIZE, output.length - written);
+                out.write(output, written, n);
+                written += n;
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            release();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) throws IOException {
+            fail(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            release();
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            release();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+
+        private void fail(int status) throws IOException {
+            HttpServletResponse response = (HttpServletResponse) context.getResponse();
+            if (!response.isCommitted()) {
+                refuse(response, status);
+            }
+            release();
+        }
+
+        /**
+         * Completes the request and frees its slot, once however many paths get here.
+         */
+        private void release() {
+            if (released.compareAndSet(0, 1)) {
+                pending.decrementAndGet();
+                try {
+                    context.complete();
+                } catch (IllegalStateException e) {
+                    // Already completed by the container after an error or timeout.
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,442 @@
+/*
+ * Copyright 2014 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package edu.cmu.lti.oaqa.lapps;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary encoding of LIF documents, interchangeable with their JSON form.
+ * <p>
+ * The encoding is the JSON token stream, one tag byte per token, with:
+ * <ul>
+ * <li>field names and short strings interned: the first occurrence is written in UTF-8,
+ * later ones as a varint index,</li>
+ * <li>integers as zig-zag varints, {@code start} offsets relative to the previous
+ * {@code start} and {@code end} offsets relative to their {@code start},</li>
+ * <li>long strings, in particular the document text, written once in UTF-8, and</li>
+ * <li>strings equal to the text between the last {@code start} and {@code end}, such as
+ * the word of a token, written as a single tag byte.</li>
+ * </ul>
+ * Decoding yields the same JSON tokens, so {@code decode(encode(json))} parses to the same
+ * document as {@code json}. Token views shrink several times compared to JSON.
+ */
+public final class BinaryLif {
+
+    /**
+     * Media type for requests and responses in this encoding.
+     */
+    public static final String MEDIA_TYPE = "application/x-lif-binary";
+
+    private static final byte[] MAGIC = {'L', 'I', 'F', 1};
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    /**
+     * Strings longer than this are written out every time instead of being interned.
+     */
+    private static final int MAX_INTERNED_LENGTH = 64;
+
+    private static final int START_OBJECT = 1;
+    private static final int END_OBJECT = 2;
+    private static final int START_ARRAY = 3;
+    private static final int END_ARRAY = 4;
+    private static final int NEW_NAME = 5;
+    private static final int NAME = 6;
+    private static final int NEW_STRING = 7;
+    private static final int STRING = 8;
+    private static final int LONG_STRING = 9;
+    private static final int INT = 10;
+    private static final int NUMBER = 11;
+    private static final int TRUE = 12;
+    private static final int FALSE = 13;
+    private static final int NULL = 14;
+    private static final int START = 15;
+    private static final int END = 16;
+    private static final int TEXT_SLICE = 17;
+
+    private BinaryLif() {
+    }
+
+    /**
+     * Returns true if {@code bytes} start like an encoded document.
+     */
+    public static boolean isBinary(byte[] bytes) {
+        if (bytes.length < MAGIC.length) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (bytes[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Encodes a JSON document, normally the JSON of a {@code Data} object.
+     *
+     * @throws IOException if the input is not well-formed JSON
+     */
+    public static byte[] encode(String json) throws IOException {
+        Encoder out = new Encoder(json.length() / 2 + 64);
+        out.write(MAGIC, 0, MAGIC.length);
+        State state = new State();
+        try (JsonParser parser = FACTORY.createParser(json)) {
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                switch (token) {
+                    case START_OBJECT:
+                        out.write(START_OBJECT);
+                        state.field = null;
+                        break;
+                    case END_OBJECT:
+                        out.write(END_OBJECT);
+                        break;
+                    case START_ARRAY:
+                        out.write(START_ARRAY);
+                        state.field = null;
+                        break;
+                    case END_ARRAY:
+                        out.write(END_ARRAY);
+                        break;
+                    case FIELD_NAME:
+                        state.field = parser.getCurrentName();
+                        out.writeString(NEW_NAME, NAME, state.field);
+                        break;
+                    case VALUE_STRING:
+                        encodeString(parser.getText(), out, state);
+                        break;
+                    case VALUE_NUMBER_INT:
+                        if (parser.getNumberType() == JsonParser.NumberType.BIG_INTEGER) {
+                            out.write(NUMBER);
+                            out.writeUtf8(parser.getText());
+                            state.field = null;
+                        } else {
+                            encodeLong(parser.getLongValue(), out, state);
+                        }
+                        break;
+                    case VALUE_NUMBER_FLOAT:
+                        // Kept as text so the number reads back exactly as written.
+                        out.write(NUMBER);
+                        out.writeUtf8(parser.getText());
+                        state.field = null;
+                        break;
+                    case VALUE_TRUE:
+                        out.write(TRUE);
+                        state.field = null;
+                        break;
+                    case VALUE_FALSE:
+                        out.write(FALSE);
+                        state.field = null;
+                        break;
+                    case VALUE_NULL:
+                        out.write(NULL);
+                        state.field = null;
+                        break;
+                    default:
+                        throw new IOException("Unsupported JSON token " + token);
+                }
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static void encodeString(String value, Encoder out, State state) {
+        if (state.isSlice(value)) {
+            out.write(TEXT_SLICE);
+        } else if (value.length() > MAX_INTERNED_LENGTH) {
+            out.write(LONG_STRING);
+            out.writeUtf8(value);
+        } else {
+            out.writeString(NEW_STRING, STRING, value);
+        }
+        state.string(value);
+    }
+
+    private static void encodeLong(long value, Encoder out, State state) {
+        if ("start".equals(state.field)) {
+            out.write(START);
+            out.writeVarLong(zigZag(value - state.start));
+        } else if ("end".equals(state.field)) {
+            out.write(END);
+            out.writeVarLong(zigZag(value - state.start));
+        } else {
+            out.write(INT);
+            out.writeVarLong(zigZag(value));
+        }
+        state.number(value);
+    }
+
+    /**
+     * Decodes a document back to JSON.
+     *
+     * @throws IOException if the bytes are not a well-formed encoding, e.g. truncated
+     */
+    public static String decode(byte[] bytes) throws IOException {
+        if (!isBinary(bytes)) {
+            throw new IOException("Not a binary LIF document");
+        }
+        Decoder in = new Decoder(bytes, MAGIC.length);
+        State state = new State();
+        StringWriter json = new StringWriter(bytes.length * 3);
+        // The generator would close open objects and arrays itself, hiding a truncation.
+        int depth = 0;
+        try (JsonGenerator out = FACTORY.createGenerator(json)) {
+            while (in.hasMore()) {
+                int tag = in.read();
+                switch (tag) {
+                    case START_OBJECT:
+                        out.writeStartObject();
+                        state.field = null;
+                        depth++;
+                        break;
+                    case END_OBJECT:
+                        out.writeEndObject();
+                        depth--;
+                        break;
+                    case START_ARRAY:
+                        out.writeStartArray();
+                        state.field = null;
+                        depth++;
+                        break;
+                    case END_ARRAY:
+                        out.writeEndArray();
+                        depth--;
+                        break;
+                    case NEW_NAME:
+                    case NAME:
+                        state.field = in.readString(tag == NEW_NAME);
+                        out.writeFieldName(state.field);
+                        break;
+                    case NEW_STRING:
+                    case STRING:
+                        writeString(in.readString(tag == NEW_STRING), out, state);
+                        break;
+                    case LONG_STRING:
+                        writeString(in.readUtf8(), out, state);
+                        break;
+                    case TEXT_SLICE:
+                        writeString(state.slice(), out, state);
+                        break;
+                    case NUMBER:
+                        out.writeNumber(in.readUtf8());
+                        state.field = null;
+                        break;
+                    case INT:
+                        writeLong(unZigZag(in.readVarLong()), out, state);
+                        break;
+                    case START:
+                    case END:
+                        writeLong(state.start + unZigZag(in.readVarLong()), out, state);
+                        break;
+                    case TRUE:
+                        out.writeBoolean(true);
+                        state.field = null;
+                        break;
+                    case FALSE:
+                        out.writeBoolean(false);
+                        state.field = null;
+                        break;
+                    case NULL:
+                        out.writeNull();
+                        state.field = null;
+                        break;
+                    default:
+                        throw new IOException(String.format("Unknown tag %d at byte %d", tag, in.position - 1));
+                }
+            }
+            if (depth != 0) {
+                throw new IOException(String.format("Unexpected end of binary LIF: %d unclosed objects or arrays",
+                        depth));
+            }
+        }
+        return json.toString();
+    }
+
+    private static void writeString(String value, JsonGenerator out, State state) throws IOException {
+        out.writeString(value);
+        state.string(value);
+    }
+
+    private static void writeLong(long value, JsonGenerator out, State state) throws IOException {
+        out.writeNumber(value);
+        state.number(value);
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * What both sides remember of the tokens so far: the encoder and the decoder update it
+     * identically, so offsets and slices are resolved the same way on both.
+     */
+    private static final class State {
+
+        String field;
+
+        String text;
+
+        long start;
+
+        long end;
+
+        void string(String value) {
+            if ("text".equals(field) || "@value".equals(field)) {
+                text = value;
+            }
+            field = null;
+        }
+
+        void number(long value) {
+            if ("start".equals(field)) {
+                start = value;
+            } else if ("end".equals(field)) {
+                end = value;
+            }
+            field = null;
+        }
+
+        boolean isSlice(String value) {
+            return text != null && 0 <= start && start < end && end <= text.length()
+                    && value.length() == end - start && text.regionMatches((int) start, value, 0, value.length());
+        }
+
+        String slice() throws IOException {
+            if (text == null || start < 0 || start >= end || end > text.length()) {
+                throw new IOException("Text slice without a valid text span");
+            }
+            return text.substring((int) start, (int) end);
+        }
+    }
+
+    private static final class Encoder extends ByteArrayOutputStream {
+
+        private final Map<String, Integer> interned = new HashMap<>();
+
+        Encoder(int size) {
+            super(size);
+        }
+
+        void writeVarLong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        void writeUtf8(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+
+        /**
+         * Writes {@code newTag} and the string on its first occurrence, {@code refTag} and its
+         * index afterwards.
+         */
+        void writeString(int newTag, int refTag, String value) {
+            Integer index = interned.get(value);
+            if (index != null) {
+                write(refTag);
+                writeVarLong(index);
+                return;
+            }
+            interned.put(value, interned.size());
+            write(newTag);
+            writeUtf8(value);
+        }
+    }
+
+    private static final class Decoder {
+
+        private final byte[] bytes;
+
+        private final List<String> interned = new ArrayList<>();
+
+        int position;
+
+        Decoder(byte[] bytes, int position) {
+            this.bytes = bytes;
+            this.position = position;
+        }
+
+        boolean hasMore() {
+            return position < bytes.length;
+        }
+
+        int read() throws IOException {
+            if (position >= bytes.length) {
+                throw new IOException("Unexpected end of binary LIF");
+            }
+            return bytes[position++] & 0xFF;
+        }
+
+        long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = read();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint at byte " + position);
+        }
+
+        String readUtf8() throws IOException {
+            long length = readVarLong();
+            if (length < 0 || length > bytes.length - position) {
+                throw new IOException("String length out of range at byte " + position);
+            }
+            String value = new String(bytes, position, (int) length, StandardCharsets.UTF_8);
+            position += (int) length;
+            return value;
+        }
+
+        String readString(boolean isNew) throws IOException {
+            if (isNew) {
+                String value = readUtf8();
+                interned.add(value);
+                return value;
+            }
+            long index = readVarLong();
+            if (index < 0 || index >= interned.size()) {
+                throw new IOException("Unknown string reference " + index);
+            }
+            return interned.get((int) index);
+        }
+    }
+}
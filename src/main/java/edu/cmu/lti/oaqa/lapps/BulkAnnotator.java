@@ -0,0 +1,625 @@
+/*
+ * Copyright 2014 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package edu.cmu.lti.oaqa.lapps;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import org.lappsgrid.serialization.Data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.lappsgrid.discriminator.Discriminators.Uri;
+
+/**
+ * Annotates a corpus offline with a service running in-process, e.g. a
+ * {@link LingpipePipeline}.
+ * <p>
+ * Inputs are files or directories, read in sorted order. By file name:
+ * <ul>
+ * <li>{@code .jsonl}, {@code .jsonl.gz}: one document per line, in the JSON form
+ * {@link AbstractLingpipeService#execute(String)} accepts;</li>
+ * <li>{@code .warc}, {@code .wet}, optionally gzipped: the text of {@code conversion}
+ * records and of {@code text/plain} {@code resource} records;</li>
+ * <li>{@code .json}, {@code .lif}: one JSON document per file;</li>
+ * <li>anything else: one plain text document per file.</li>
+ * </ul>
+ * Whole-file documents are memory-mapped and read by the worker that annotates them.
+ * <p>
+ * Documents are numbered in input order and written in shards of {@link #getShardSize()}
+ * documents, {@code part-000000.jsonl.gz} and so on, one {@code {"id": ..., "data": ...}}
+ * line per document with the LIF result under {@code data}. Each shard is annotated by one
+ * task on a work-stealing pool and renamed into place once complete, so a run that is
+ * stopped can be resumed over the same output directory: shards already there are
+ * skipped. The inputs and shard size of a run are kept in {@value #MANIFEST}, and a
+ * resumed run must use the same ones.
+ */
+public final class BulkAnnotator {
+
+    public static final int DEFAULT_SHARD_SIZE = 1000;
+
+    static final String MANIFEST = "inputs.txt";
+
+    private static final String USAGE = "Usage: BulkAnnotator -o <output dir> [-s tokenizer,splitter,tagger,ner] "
+            + "[-n <documents per shard>] [-t <threads>] [-r <report seconds>] <input>...";
+
+    private final AbstractLingpipeService service;
+
+    private final Path output;
+
+    private int shardSize = DEFAULT_SHARD_SIZE;
+
+    private ForkJoinPool pool = AbstractLingpipeService.WORKERS;
+
+    private long reportSeconds = 10;
+
+    private PrintStream log = System.err;
+
+    public BulkAnnotator(AbstractLingpipeService service, Path output) {
+        this.service = service;
+        this.output = output;
+    }
+
+    public int getShardSize() {
+        return shardSize;
+    }
+
+    public void setShardSize(int shardSize) {
+        if (shardSize < 1) {
+            throw new IllegalArgumentException("Shard size must be positive: " + shardSize);
+        }
+        this.shardSize = shardSize;
+    }
+
+    /**
+     * Sets the pool shards are annotated on; the pool shared by the services by default.
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Sets how often progress is reported, 0 for only once at the end.
+     */
+    public void setReportSeconds(long reportSeconds) {
+        this.reportSeconds = reportSeconds;
+    }
+
+    public void setLog(PrintStream log) {
+        this.log = log;
+    }
+
+    /**
+     * Annotates every document in {@code inputs} not in a shard already written to the
+     * output directory.
+     *
+     * @throws IllegalStateException if the output directory holds a run over other inputs
+     */
+    public Progress run(List<Path> inputs) throws IOException {
+        List<Path> files = listFiles(inputs);
+        Files.createDirectories(output);
+        checkManifest(files);
+
+        Progress progress = new Progress();
+        Shards shards = new Shards(progress);
+        ScheduledExecutorService reporter = null;
+        if (reportSeconds > 0) {
+            reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "bulk-annotator-progress");
+                thread.setDaemon(true);
+                return thread;
+            });
+            reporter.scheduleAtFixedRate(() -> log.println(progress), reportSeconds, reportSeconds, TimeUnit.SECONDS);
+        }
+        try {
+            for (Path file : files) {
+                read(file, shards);
+            }
+            shards.finish();
+        } catch (IOException | RuntimeException e) {
+            shards.drain();
+            throw e;
+        } finally {
+            if (reporter != null) {
+                reporter.shutdownNow();
+            }
+        }
+        log.println(progress);
+        return progress;
+    }
+
+    /**
+     * Expands directories into the regular, non-hidden files below them, in sorted order.
+     */
+    static List<Path> listFiles(List<Path> inputs) throws IOException {
+        List<Path> files = new ArrayList<>();
+        for (Path input : inputs) {
+            if (Files.isDirectory(input)) {
+                try (Stream<Path> walk = Files.walk(input)) {
+                    files.addAll(walk.filter(Files::isRegularFile)
+                            .filter(path -> !path.getFileName().toString().startsWith("."))
+                            .sorted()
+                            .collect(Collectors.toList()));
+                }
+            } else if (Files.isRegularFile(input)) {
+                files.add(input);
+            } else {
+                throw new IOException("No such input: " + input);
+            }
+        }
+        return files;
+    }
+
+    private void checkManifest(List<Path> files) throws IOException {
+        List<String> manifest = new ArrayList<>();
+        manifest.add("shardSize=" + shardSize);
+        for (Path file : files) {
+            manifest.add(file.toAbsolutePath().normalize().toString());
+        }
+        Path path = output.resolve(MANIFEST);
+        if (Files.exists(path)) {
+            if (!Files.readAllLines(path, StandardCharsets.UTF_8).equals(manifest)) {
+                throw new IllegalStateException(String.format(
+                        "%s holds a run over other inputs or another shard size, use a new output directory",
+                        output));
+            }
+        } else {
+            Files.write(path, manifest, StandardCharsets.UTF_8);
+        }
+    }
+
+    private void read(Path file, Shards shards) throws IOException {
+        String name = file.getFileName().toString();
+        String plain = name.endsWith(".gz") ? name.substring(0, name.length() - 3) : name;
+        if (plain.endsWith(".jsonl")) {
+            readLines(file, shards);
+        } else if (plain.endsWith(".warc") || plain.endsWith(".wet")) {
+            readWarc(file, shards);
+        } else {
+            shards.add(new Document(file.toString(), file, null, !plain.endsWith(".json") && !plain.endsWith(".lif")));
+        }
+    }
+
+    private void readLines(Path file, Shards shards) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(open(file), StandardCharsets.UTF_8))) {
+            String line;
+            int n = 0;
+            while ((line = reader.readLine()) != null) {
+                n++;
+                if (!line.trim().isEmpty()) {
+                    shards.add(new Document(file + ":" + n, null, line, false));
+                }
+            }
+        }
+    }
+
+    private void readWarc(Path file, Shards shards) throws IOException {
+        try (InputStream in = open(file)) {
+            String line;
+            int n = 0;
+            while ((line = readLine(in)) != null) {
+                if (line.isEmpty()) {
+                    // Records are followed by a blank line.
+                    continue;
+                }
+                if (!line.startsWith("WARC/")) {
+                    throw new IOException(String.format("Expected a WARC record in %s, found: %s", file, line));
+                }
+                n++;
+                String type = "";
+                String contentType = "";
+                long length = -1;
+                while ((line = readLine(in)) != null && !line.isEmpty()) {
+                    int colon = line.indexOf(':');
+                    if (colon < 0) {
+                        continue;
+                    }
+                    String field = line.substring(0, colon).trim();
+                    String value = line.substring(colon + 1).trim();
+                    if (field.equalsIgnoreCase("WARC-Type")) {
+                        type = value;
+                    } else if (field.equalsIgnoreCase("Content-Type")) {
+                        contentType = value;
+                    } else if (field.equalsIgnoreCase("Content-Length")) {
+                        length = Long.parseLong(value);
+                    }
+                }
+                if (length < 0 || length > Integer.MAX_VALUE) {
+                    throw new IOException(String.format("Record %d in %s has no usable Content-Length", n, file));
+                }
+                byte[] block = new byte[(int) length];
+                int read = 0;
+                while (read < block.length) {
+                    int count = in.read(block, read, block.length - read);
+                    if (count < 0) {
+                        throw new EOFException(String.format("Record %d in %s is truncated", n, file));
+                    }
+                    read += count;
+                }
+                if (type.equals("conversion") || (type.equals("resource") && contentType.startsWith("text/plain"))) {
+                    shards.add(new Document(file + "#" + n, null, new String(block, StandardCharsets.UTF_8), true));
+                }
+            }
+        }
+    }
+
+    private static InputStream open(Path file) throws IOException {
+        InputStream in = Files.newInputStream(file);
+        if (file.getFileName().toString().endsWith(".gz")) {
+            // Also reads the concatenated gzip members of a per-record compressed WARC file.
+            in = new GZIPInputStream(in, 1 << 16);
+        }
+        return new BufferedInputStream(in, 1 << 16);
+    }
+
+    /**
+     * Reads a header line, without its line terminator, or returns null at the end.
+     */
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) >= 0 && b != '\n') {
+            line.append((char) b);
+        }
+        if (b < 0 && line.length() == 0) {
+            return null;
+        }
+        int length = line.length();
+        if (length > 0 && line.charAt(length - 1) == '\r') {
+            line.setLength(length - 1);
+        }
+        return line.toString();
+    }
+
+    static String readMapped(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(String.format("%s is too large for a single document", file));
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return StandardCharsets.UTF_8.decode(buffer).toString();
+        }
+    }
+
+    static Path shard(Path output, int index) {
+        return output.resolve(String.format("part-%06d.jsonl.gz", index));
+    }
+
+    /**
+     * Annotates the documents of one shard and renames the finished shard into place.
+     */
+    private void write(Path shard, List<Document> documents, Progress progress) throws IOException {
+        Path partial = shard.resolveSibling(shard.getFileName() + ".partial");
+        JsonStringEncoder encoder = JsonStringEncoder.getInstance();
+        try (Writer out = new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(partial), 1 << 16),
+                StandardCharsets.UTF_8)) {
+            for (Document document : documents) {
+                String result;
+                try {
+                    String content = document.content();
+                    progress.chars.add(document.chars(content));
+                    result = service.execute(document.input(content));
+                } catch (IOException | RuntimeException e) {
+                    progress.errors.increment();
+                    result = AbstractLingpipeService.error(
+                            String.format("Unable to process %s: %s", document.id, e));
+                }
+                out.write("{\"id\":\"");
+                out.write(encoder.quoteAsString(document.id));
+                out.write("\",\"data\":");
+                out.write(result);
+                out.write("}\n");
+                progress.documents.increment();
+            }
+        }
+        Files.move(partial, shard, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        progress.shards.increment();
+    }
+
+    /**
+     * Groups documents into shards and hands each missing shard to the pool, keeping at
+     * most two shards per worker in flight so reading cannot run ahead of annotating.
+     */
+    private final class Shards {
+
+        private final Progress progress;
+
+        private final int permits = 2 * pool.getParallelism();
+
+        private final Semaphore inFlight = new Semaphore(permits);
+
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        private List<Document> documents = new ArrayList<>();
+
+        private int index;
+
+        Shards(Progress progress) {
+            this.progress = progress;
+        }
+
+        void add(Document document) throws IOException {
+            documents.add(document);
+            if (documents.size() == shardSize) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            checkFailure();
+            if (documents.isEmpty()) {
+                return;
+            }
+            final List<Document> shardDocuments = documents;
+            final Path shard = shard(output, index++);
+            documents = new ArrayList<>(shardSize);
+            if (Files.exists(shard)) {
+                progress.skipped.add(shardDocuments.size());
+                return;
+            }
+            acquire(1);
+            pool.execute(() -> {
+                try {
+                    write(shard, shardDocuments, progress);
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    inFlight.release();
+                }
+            });
+        }
+
+        void finish() throws IOException {
+            flush();
+            drain();
+            checkFailure();
+        }
+
+        /**
+         * Waits until no shard is in flight.
+         */
+        void drain() throws InterruptedIOException {
+            acquire(permits);
+            inFlight.release(permits);
+        }
+
+        private void acquire(int n) throws InterruptedIOException {
+            try {
+                inFlight.acquire(n);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for shards");
+            }
+        }
+
+        private void checkFailure() throws IOException {
+            if (failure.get() != null) {
+                // No shard may still be written once the run has failed.
+                drain();
+                throw new IOException("Unable to write a shard", failure.get());
+            }
+        }
+    }
+
+    /**
+     * A document to annotate, read from its own file or already in memory.
+     */
+    private static final class Document {
+
+        final String id;
+        final Path file;
+        final String content;
+        final boolean text;
+
+        Document(String id, Path file, String content, boolean text) {
+            this.id = id;
+            this.file = file;
+            this.content = content;
+            this.text = text;
+        }
+
+        String content() throws IOException {
+            return file != null ? readMapped(file) : content;
+        }
+
+        String input(String content) {
+            return text ? new Data<>(Uri.TEXT, content).asJson() : content;
+        }
+
+        /**
+         * Returns the length of the document text, leaving out the JSON around it.
+         */
+        int chars(String content) throws IOException {
+            if (text) {
+                return content.length();
+            }
+            String documentText = StreamingLif.text(content);
+            return documentText == null ? 0 : documentText.length();
+        }
+    }
+
+    /**
+     * Counts of a run, updated while it runs.
+     */
+    public static final class Progress {
+
+        private final long startTime = System.nanoTime();
+        final LongAdder documents = new LongAdder();
+        final LongAdder skipped = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder chars = new LongAdder();
+        final LongAdder shards = new LongAdder();
+
+        /**
+         * Documents annotated by this run.
+         */
+        public long getDocuments() {
+            return documents.sum();
+        }
+
+        /**
+         * Documents in shards written by an earlier run.
+         */
+        public long getSkipped() {
+            return skipped.sum();
+        }
+
+        /**
+         * Documents written as an error because they could not be read or annotated.
+         */
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        public long getShards() {
+            return shards.sum();
+        }
+
+        public double getDocumentsPerSecond() {
+            return getDocuments() / seconds();
+        }
+
+        /**
+         * Characters of document text annotated by this run, without the JSON around it.
+         */
+        public long getChars() {
+            return chars.sum();
+        }
+
+        public double getCharsPerSecond() {
+            return chars.sum() / seconds();
+        }
+
+        private double seconds() {
+            return Math.max(1e-9, (System.nanoTime() - startTime) / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d documents in %d shards (%d skipped, %d errors), %.1f documents/s, %.0f chars/s",
+                    getDocuments(), getShards(), getSkipped(), getErrors(), getDocumentsPerSecond(),
+                    getCharsPerSecond());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path output = null;
+        String stages = "tokenizer,splitter,tagger,ner";
+        int shardSize = DEFAULT_SHARD_SIZE;
+        int threads = 0;
+        long reportSeconds = 10;
+        List<Path> inputs = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.startsWith("-") && i + 1 == args.length) {
+                usage("Missing value for " + arg);
+            }
+            switch (arg) {
+                case "-o":
+                    output = Paths.get(args[++i]);
+                    break;
+                case "-s":
+                    stages = args[++i];
+                    break;
+                case "-n":
+                    shardSize = Integer.parseInt(args[++i]);
+                    break;
+                case "-t":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "-r":
+                    reportSeconds = Long.parseLong(args[++i]);
+                    break;
+                default:
+                    if (arg.startsWith("-")) {
+                        usage("Unknown option " + arg);
+                    }
+                    inputs.add(Paths.get(arg));
+            }
+        }
+        if (output == null || inputs.isEmpty()) {
+            usage(output == null ? "No output directory" : "No inputs");
+        }
+
+        List<AbstractLingpipeService> services = new ArrayList<>();
+        for (String stage : stages.split(",")) {
+            services.add(stage(stage.trim()));
+        }
+        BulkAnnotator annotator = new BulkAnnotator(services.size() == 1 ? services.get(0)
+                : new LingpipePipeline(services.toArray(new AbstractLingpipeService[services.size()])), output);
+        annotator.setShardSize(shardSize);
+        annotator.setReportSeconds(reportSeconds);
+        if (threads > 0) {
+            annotator.setPool(new ForkJoinPool(threads));
+        }
+        Progress progress = annotator.run(Collections.unmodifiableList(inputs));
+        System.exit(progress.getErrors() == 0 ? 0 : 1);
+    }
+
+    private static AbstractLingpipeService stage(String name) throws IOException, ClassNotFoundException {
+        switch (name) {
+            case "tokenizer":
+                return new LingpipeTokenizer();
+            case "splitter":
+                return new LingpipeSentenceSpliter();
+            case "tagger":
+                return new LingpipeTagger();
+            case "ner":
+                return new LingpipeNER();
+            default:
+                usage("Unknown stage " + name);
+                return null;
+        }
+    }
+
+    private static void usage(String message) {
+        System.err.println(message);
+        System.err.println(USAGE);
+        System.exit(2);
+    }
+}
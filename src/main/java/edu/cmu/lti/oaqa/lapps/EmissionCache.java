@@ -0,0 +1,102 @@
+/*
+ * Copyright 2014 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package edu.cmu.lti.oaqa.lapps;
+
+import com.aliasi.util.FastCache;
+
+import java.util.AbstractMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded, thread-safe cache of per-token emission scores for {@code HmmDecoder}, which
+ * counts its hits and misses.
+ * <p>
+ * The decoder looks every token up before computing its scores over all tags and puts
+ * the result back on a miss. Storage is a Lingpipe {@link FastCache}, which may drop
+ * entries at any time to stay within its size, so one cache can back the decoders of
+ * all threads.
+ */
+final class EmissionCache extends AbstractMap<String, double[]> {
+
+    private final FastCache<String, double[]> cache;
+
+    private final int size;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    EmissionCache(int size) {
+        this.cache = new FastCache<>(size);
+        this.size = size;
+    }
+
+    @Override
+    public double[] get(Object token) {
+        double[] scores = cache.get(token);
+        if (scores == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return scores;
+    }
+
+    @Override
+    public double[] put(String token, double[] scores) {
+        return cache.put(token, scores);
+    }
+
+    @Override
+    public boolean containsKey(Object token) {
+        return cache.containsKey(token);
+    }
+
+    @Override
+    public void clear() {
+        cache.clear();
+    }
+
+    @Override
+    public Set<Map.Entry<String, double[]>> entrySet() {
+        return cache.entrySet();
+    }
+
+    int getSize() {
+        return size;
+    }
+
+    long getHits() {
+        return hits.sum();
+    }
+
+    long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the fraction of lookups answered from the cache, 0 before the first one.
+     */
+    double getHitRate() {
+        long hits = this.hits.sum();
+        long lookups = hits + misses.sum();
+        return lookups == 0 ? 0.0 : (double) hits / lookups;
+    }
+}
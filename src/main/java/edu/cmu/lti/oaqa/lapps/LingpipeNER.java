@@ -18,35 +18,111 @@
 package edu.cmu.lti.oaqa.lapps;
 
 import com.aliasi.chunk.Chunk;
+import com.aliasi.chunk.ChunkFactory;
 import com.aliasi.chunk.Chunker;
 import com.aliasi.chunk.Chunking;
-import com.aliasi.util.Streams;
-import org.lappsgrid.discriminator.Discriminators;
+import com.aliasi.chunk.ChunkingImpl;
+import com.aliasi.chunk.ConfidenceChunker;
+import com.aliasi.chunk.RescoringChunker;
+import com.aliasi.corpus.ObjectHandler;
 import org.lappsgrid.metadata.IOSpecification;
-import org.lappsgrid.metadata.ServiceMetadata;
-import org.lappsgrid.serialization.Data;
-import org.lappsgrid.serialization.DataContainer;
-import org.lappsgrid.serialization.Serializer;
 import org.lappsgrid.serialization.lif.Annotation;
 import org.lappsgrid.serialization.lif.Container;
+import org.lappsgrid.serialization.lif.Contains;
 import org.lappsgrid.serialization.lif.View;
 import org.lappsgrid.vocabulary.Features;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.ObjectInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.URL;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinTask;
 
 import static org.lappsgrid.discriminator.Discriminators.Uri;
 
 public class LingpipeNER extends AbstractLingpipeService {
+
+    /**
+     * Minimum number of characters in a segment handed to one worker in parallel mode.
+     * Shorter sentences are merged with their neighbours so that the per-task overhead
+     * stays small compared to the chunking work.
+     */
+    static final int MIN_SEGMENT_LENGTH = 1000;
+
+    /**
+     * Default window length, in characters, for chunking text read from a stream.
+     */
+    static final int WINDOW_LENGTH = 64 * 1024;
+
+    /**
+     * Container metadata entry overriding the confidence threshold for one request.
+     */
+    public static final String CONFIDENCE_THRESHOLD = "lingpipe.ner.confidenceThreshold";
+
+    /**
+     * Container metadata entry overriding the maximum number of entities for one request.
+     */
+    public static final String MAX_CHUNKS = "lingpipe.ner.maxChunks";
+
+    /**
+     * Container metadata entry naming the model, one of {@link #getModels()}, for one
+     * request.
+     */
+    public static final String MODEL = "lingpipe.ner.model";
+
+    /**
+     * Class path resource of the English news model used when a request selects none.
+     */
+    static final String DEFAULT_MODEL = "/models/ne-en-news-muc6.AbstractCharLmRescoringChunker";
+
+    /**
+     * Least number of candidate entities examined per segment in confidence mode.
+     */
+    static final int MAX_CANDIDATES = 1024;
+
+    /**
+     * Characters of a segment per candidate entity examined beyond {@link #MAX_CANDIDATES}.
+     */
+    static final int CHARS_PER_CANDIDATE = 8;
+
+    private static final LiveInstances<LingpipeNER> INSTANCES = new LiveInstances<>();
+
     private Chunker chunker;
 
+    private ModelRegistry.Model chunkerModel;
+
+    private NerModels models;
+
+    private boolean parallel = false;
+
+    private double confidenceThreshold = 0.0;
+
+    private int maxChunks = 0;
+
     public LingpipeNER() throws IOException, ClassNotFoundException {
         super();
 
         //load models file
         loadChucker();
+        INSTANCES.add(this);
+        getMetrics().gauge("ner_models_loaded",
+                () -> liveModels().stream().mapToDouble(NerModels::getLoadedCount).sum());
+        getMetrics().gauge("ner_models_bytes",
+                () -> liveModels().stream().mapToDouble(NerModels::getUsedBytes).sum());
 
          metadata.setDescription("Lingpipe Named Entity Recognizer with model \"English News: MUC-6\"");
 
@@ -67,71 +143,532 @@ public class LingpipeNER extends AbstractLingpipeService {
     }
 
     protected void loadChucker() throws IOException, ClassNotFoundException {
-        URL url = getClass().getResource("/models/ne-en-news-muc6.AbstractCharLmRescoringChunker");
+        URL url = getClass().getResource(DEFAULT_MODEL);
         loadChucker(url);
     }
 
     protected void loadChucker(URL url) throws IOException, ClassNotFoundException {
-        ObjectInputStream ois = new ObjectInputStream(url.openStream());
-        chunker = (Chunker) ois.readObject();
-        Streams.closeQuietly(ois);
+        ModelRegistry.Model model = ModelRegistry.model(url);
+        chunker = Chunker.class.cast(model.get());
+        chunkerModel = model;
+    }
+
+    public NerModels getModels() {
+        return models;
+    }
+
+    /**
+     * Sets the models requests may select with the {@link #MODEL} metadata entry. Requests
+     * that select none use the English news model, which counts against the budget of
+     * {@code models} and is never dropped by it.
+     */
+    public void setModels(NerModels models) {
+        if (models != null) {
+            models.pin(chunkerModel);
+        }
+        this.models = models;
+    }
+
+    /**
+     * Returns the distinct model managers of all live NER instances, which the gauges add
+     * up: they are published once per class, not per instance.
+     */
+    private static Collection<NerModels> liveModels() {
+        Map<NerModels, Boolean> models = new IdentityHashMap<>();
+        for (LingpipeNER ner : INSTANCES.snapshot()) {
+            NerModels current = ner.models;
+            if (current != null) {
+                models.put(current, Boolean.TRUE);
+            }
+        }
+        return models.keySet();
+    }
+
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    /**
+     * Enables sentence-sharded chunking: the text is cut at sentence boundaries and the
+     * segments are chunked concurrently on the shared worker pool. Only this mode reuses a
+     * sentence view already in the input; sequential chunking takes the text in one piece.
+     * A token view is never reused in either mode, as the chunker tokenizes the text itself.
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    public double getConfidenceThreshold() {
+        return confidenceThreshold;
+    }
+
+    /**
+     * Switches to confidence mode when positive: only entities whose conditional
+     * probability, between 0 and 1, reaches the threshold are kept. Requests may override
+     * it with the {@value #CONFIDENCE_THRESHOLD} container metadata entry.
+     * <p>
+     * Confidence mode ranks candidate entities with the model's base HMM chunker and stops
+     * as soon as the next candidate falls below the threshold, instead of rescoring whole
+     * chunkings with the character language models. It is considerably faster, and the
+     * threshold bounds how much recall is given up. At most {@link #maxCandidates(int)}
+     * candidates are ranked per segment, i.e. per document unless in parallel mode, which
+     * on long texts is far more than there are entities.
+     */
+    public void setConfidenceThreshold(double confidenceThreshold) {
+        this.confidenceThreshold = checkThreshold(confidenceThreshold);
+    }
+
+    public int getMaxChunks() {
+        return maxChunks;
+    }
+
+    /**
+     * Switches to confidence mode when positive, keeping at most the {@code maxChunks}
+     * most confident entities per document. Requests may override it with the
+     * {@value #MAX_CHUNKS} container metadata entry.
+     *
+     * @see #setConfidenceThreshold(double)
+     */
+    public void setMaxChunks(int maxChunks) {
+        this.maxChunks = checkMaxChunks(maxChunks);
+    }
+
+    private static double checkThreshold(double threshold) {
+        if (!(threshold >= 0.0 && threshold <= 1.0)) {
+            throw new IllegalArgumentException("Confidence threshold must be between 0 and 1: " + threshold);
+        }
+        return threshold;
+    }
+
+    private static int checkMaxChunks(int maxChunks) {
+        if (maxChunks < 0) {
+            throw new IllegalArgumentException("Maximum number of chunks must not be negative: " + maxChunks);
+        }
+        return maxChunks;
+    }
+
+    protected Chunking chunk(String text) {
+        return chunk(text, confidenceThreshold, maxChunks);
+    }
+
+    /**
+     * Chunks the text, in confidence mode if {@code threshold} or {@code maxChunks} is
+     * positive.
+     */
+    protected Chunking chunk(String text, double threshold, int maxChunks) {
+        return chunk(chunker, text, null, threshold, maxChunks);
+    }
+
+    /**
+     * {@link #chunk(String, double, int)} with {@code chunker}, segmenting the text at
+     * {@code sentenceEnds} when given instead of splitting it again.
+     */
+    private Chunking chunk(Chunker chunker, String text, int[] sentenceEnds, double threshold, int maxChunks) {
+        final char[] cs = text.toCharArray();
+        if (!parallel || text.length() < 2 * MIN_SEGMENT_LENGTH) {
+            return chunk(chunker, cs, 0, cs.length, threshold, maxChunks);
+        }
+        List<int[]> segments = segment(cs.length,
+                sentenceEnds != null ? sentenceEnds : LingpipeSentenceSpliter.sentenceEnds(cs, 0, cs.length));
+        if (segments.size() < 2) {
+            return chunk(chunker, cs, 0, cs.length, threshold, maxChunks);
+        }
+
+        List<ForkJoinTask<Chunking>> tasks = new ArrayList<>(segments.size());
+        for (final int[] segment : segments) {
+            tasks.add(WORKERS.submit(() -> chunk(chunker, cs, segment[0], segment[1], threshold, maxChunks)));
+        }
+
+        // Chunk offsets are relative to the segment start, shift them back to the document.
+        List<Chunk> chunks = new ArrayList<>();
+        for (int i = 0; i < segments.size(); i++) {
+            int offset = segments.get(i)[0];
+            for (Chunk chunk : tasks.get(i).join().chunkSet()) {
+                chunks.add(ChunkFactory.createChunk(offset + chunk.start(), offset + chunk.end(),
+                        chunk.type(), chunk.score()));
+            }
+        }
+        // Every segment kept its own best, the document keeps the best of those.
+        if (maxChunks > 0 && chunks.size() > maxChunks) {
+            chunks.sort((a, b) -> Double.compare(b.score(), a.score()));
+            chunks = new ArrayList<>(chunks.subList(0, maxChunks));
+            chunks.sort(Chunk.TEXT_ORDER_COMPARATOR);
+        }
+
+        ChunkingImpl chunking = new ChunkingImpl(text);
+        for (Chunk chunk : chunks) {
+            chunking.add(chunk);
+        }
+        return chunking;
+    }
+
+    /**
+     * Chunks {@code cs[start, end)}, with offsets relative to {@code start}.
+     */
+    private static Chunking chunk(Chunker chunker, char[] cs, int start, int end, double threshold, int maxChunks) {
+        if (threshold <= 0.0 && maxChunks <= 0) {
+            return chunker.chunk(cs, start, end);
+        }
+
+        // Candidates come in decreasing order of confidence, so the first one below the
+        // threshold ends the search.
+        List<Chunk> accepted = new ArrayList<>();
+        Iterator<Chunk> candidates = confidenceChunker(chunker).nBestChunks(cs, start, end,
+                maxCandidates(end - start));
+        while (candidates.hasNext() && (maxChunks <= 0 || accepted.size() < maxChunks)) {
+            Chunk candidate = candidates.next();
+            double confidence = Math.pow(2.0, candidate.score());
+            if (confidence < threshold) {
+                break;
+            }
+            if (!overlaps(candidate, accepted)) {
+                accepted.add(ChunkFactory.createChunk(candidate.start(), candidate.end(), candidate.type(),
+                        confidence));
+            }
+        }
+        accepted.sort(Chunk.TEXT_ORDER_COMPARATOR);
+
+        ChunkingImpl chunking = new ChunkingImpl(cs, start, end);
+        for (Chunk chunk : accepted) {
+            chunking.add(chunk);
+        }
+        return chunking;
+    }
+
+    /**
+     * Returns how many candidate entities confidence mode ranks in a segment of
+     * {@code length} characters: {@link #MAX_CANDIDATES}, or one per
+     * {@link #CHARS_PER_CANDIDATE} characters for longer segments, so the bound keeps up
+     * with the number of entities a text can hold.
+     */
+    static int maxCandidates(int length) {
+        return Math.max(MAX_CANDIDATES, length / CHARS_PER_CANDIDATE);
+    }
+
+    private static boolean overlaps(Chunk candidate, List<Chunk> chunks) {
+        for (Chunk chunk : chunks) {
+            if (candidate.start() < chunk.end() && chunk.start() < candidate.end()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the chunker that ranks single entities by conditional probability: the model
+     * itself, or the base chunker of a rescoring model.
+     */
+    private static ConfidenceChunker confidenceChunker(Chunker chunker) {
+        if (chunker instanceof ConfidenceChunker) {
+            return (ConfidenceChunker) chunker;
+        }
+        if (chunker instanceof RescoringChunker
+                && ((RescoringChunker<?>) chunker).baseChunker() instanceof ConfidenceChunker) {
+            return (ConfidenceChunker) ((RescoringChunker<?>) chunker).baseChunker();
+        }
+        throw new IllegalStateException("The NER model does not support confidence chunking");
+    }
+
+    /**
+     * Cuts the text into consecutive {@code [start, end)} segments that end on sentence
+     * boundaries and are at least {@link #MIN_SEGMENT_LENGTH} characters long (except the
+     * last one). The segments cover the whole text, so no entity can be lost between them.
+     */
+    static List<int[]> segment(int length, int[] sentenceEnds) {
+        List<int[]> segments = new ArrayList<>();
+        int start = 0;
+        for (int end : sentenceEnds) {
+            if (end - start >= MIN_SEGMENT_LENGTH && length - end >= MIN_SEGMENT_LENGTH) {
+                segments.add(new int[]{start, end});
+                start = end;
+            }
+        }
+        segments.add(new int[]{start, length});
+        return segments;
+    }
+
+    /**
+     * Returns the sorted sentence ends of the latest sentence view made by
+     * {@link LingpipeSentenceSpliter}, which are exactly the ones the text would be split
+     * at here, or {@code null} if the container has no such view. Sentences from any other
+     * splitter would change the segments, and so possibly the entities, and are not used.
+     * They are only used in {@link #setParallel(boolean) parallel} mode.
+     */
+    static int[] splitterSentenceEnds(Container container) {
+        List<View> views = container.findViewsThatContain(Uri.SENTENCE);
+        if (views == null) {
+            return null;
+        }
+        for (int i = views.size() - 1; i >= 0; i--) {
+            View view = views.get(i);
+            Contains contains = view.getContains(Uri.SENTENCE);
+            if (contains == null || !LingpipeSentenceSpliter.class.getName().equals(contains.getProducer())) {
+                continue;
+            }
+            List<Annotation> sentences = view.getAnnotations();
+            int[] ends = new int[sentences == null ? 0 : sentences.size()];
+            for (int k = 0; k < ends.length; k++) {
+                ends[k] = sentences.get(k).getEnd().intValue();
+            }
+            Arrays.sort(ends);
+            return ends;
+        }
+        return null;
+    }
+
+    /**
+     * Finds the named entities in a text of any length, reading it in windows of
+     * {@link #WINDOW_LENGTH} characters, so memory use does not grow with the text.
+     * Annotations are handed to {@code handler} in text order as each window is done.
+     *
+     * @see #chunk(Reader, ObjectHandler, int)
+     */
+    public void chunk(Reader reader, ObjectHandler<Annotation> handler) throws IOException {
+        chunk(reader, handler, WINDOW_LENGTH);
+    }
+
+    /**
+     * Finds the named entities in a UTF-8 text file of any length, memory-mapping it when
+     * it fits into a single mapping.
+     */
+    public void chunk(File file, ObjectHandler<Annotation> handler) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            Reader reader;
+            if (channel.size() <= Integer.MAX_VALUE) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                reader = new InputStreamReader(new ByteBufferInputStream(buffer), StandardCharsets.UTF_8);
+            } else {
+                reader = Channels.newReader(channel, StandardCharsets.UTF_8.newDecoder(), -1);
+            }
+            chunk(reader, handler);
+        }
+    }
+
+    /**
+     * Finds the named entities in the text read from {@code reader}, one window of at
+     * most {@code windowLength} characters at a time, with the default model and the
+     * confidence settings of the service.
+     *
+     * @see #chunk(Reader, ObjectHandler, int, String, double, int)
+     */
+    public void chunk(Reader reader, ObjectHandler<Annotation> handler, int windowLength) throws IOException {
+        chunk(reader, handler, windowLength, null, confidenceThreshold, maxChunks);
+    }
+
+    /**
+     * Finds the named entities in the text read from {@code reader} with the named model,
+     * one of {@link #getModels()}, or the default model if {@code model} is null, in
+     * confidence mode if {@code threshold} or {@code maxChunks} is positive.
+     * <p>
+     * Each window is cut after its last complete sentence and chunked whole. Only the
+     * chunks that start before the cut, and after everything already emitted, are
+     * emitted. The next window starts one sentence before the cut, so every sentence is
+     * chunked with the sentence before it as context, and entities found twice in the
+     * overlap are emitted once. Offsets are relative to the start of the text.
+     * <p>
+     * Which entities are the {@code maxChunks} most confident is only known at the end of
+     * the text, so with {@code maxChunks} they are handed over then, in text order. Memory
+     * use still does not grow with the text, only with {@code maxChunks}.
+     */
+    public void chunk(Reader reader, ObjectHandler<Annotation> handler, int windowLength, String model,
+                      double threshold, int maxChunks) throws IOException {
+        checkThreshold(threshold);
+        checkMaxChunks(maxChunks);
+        Chunker chunker = model == null ? this.chunker : model(model);
+        // The most confident entities so far, least confident first.
+        PriorityQueue<Ranked> best = maxChunks > 0
+                ? new PriorityQueue<>(maxChunks + 1, (a, b) -> Double.compare(a.score, b.score)) : null;
+        char[] window = new char[windowLength];
+        int length = 0;
+        long windowStart = 0;
+        long committed = 0;
+        boolean eof = false;
+        while (true) {
+            while (!eof && length < windowLength) {
+                int n = reader.read(window, length, windowLength - length);
+                if (n < 0) {
+                    eof = true;
+                } else {
+                    length += n;
+                }
+            }
+            if (length == 0) {
+                break;
+            }
+
+            // Cut after the last complete sentence, keep the one before it as overlap.
+            int cut = length;
+            int keepFrom = length;
+            if (!eof) {
+                int[] ends = LingpipeSentenceSpliter.sentenceEnds(window, 0, length);
+                cut = ends.length > 0 ? ends[ends.length - 1] : lastWhitespace(window, length);
+                if (cut <= 0) {
+                    cut = length;
+                }
+                keepFrom = ends.length > 1 ? ends[ends.length - 2] : cut;
+            }
+
+            View view = new View();
+            // Only the document as a whole is cut down to maxChunks, below.
+            Chunking chunking = chunk(chunker, window, 0, length, threshold, maxChunks > 0 ? Integer.MAX_VALUE : 0);
+            long next = windowStart + cut;
+            for (Chunk chunk : chunking.chunkSet()) {
+                long start = windowStart + chunk.start();
+                if (start >= committed && chunk.start() < cut) {
+                    String word = new String(window, chunk.start(), chunk.end() - chunk.start());
+                    Annotation annotation = newAnnotation(view, chunk, windowStart, word);
+                    if (best == null) {
+                        handler.handle(annotation);
+                    } else {
+                        best.add(new Ranked(annotation, chunk.score()));
+                        if (best.size() > maxChunks) {
+                            best.poll();
+                        }
+                    }
+                    next = Math.max(next, windowStart + chunk.end());
+                }
+            }
+            committed = next;
+            if (eof) {
+                break;
+            }
+
+            System.arraycopy(window, keepFrom, window, 0, length - keepFrom);
+            windowStart += keepFrom;
+            length -= keepFrom;
+        }
+        if (best != null) {
+            List<Ranked> chunks = new ArrayList<>(best);
+            chunks.sort((a, b) -> Long.compare(a.annotation.getStart(), b.annotation.getStart()));
+            for (Ranked chunk : chunks) {
+                handler.handle(chunk.annotation);
+            }
+        }
+    }
+
+    /**
+     * An entity found while streaming, with its confidence.
+     */
+    private static final class Ranked {
+        final Annotation annotation;
+        final double score;
+
+        Ranked(Annotation annotation, double score) {
+            this.annotation = annotation;
+            this.score = score;
+        }
+    }
+
+    private static int lastWhitespace(char[] cs, int length) {
+        for (int i = length - 1; i > 0; i--) {
+            if (Character.isWhitespace(cs[i])) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    private static Annotation newAnnotation(View view, Chunk chunk, long offset, String word) {
+        Annotation a = view.newAnnotation("lingpipe-chuck-1", Uri.NE, offset + chunk.start(), offset + chunk.end());
+        a.addFeature(Features.Token.WORD, word);
+        a.addFeature(Features.Token.TYPE, chunk.type());
+        a.addFeature("score", String.valueOf(chunk.score()));
+        return a;
+    }
+
+    /**
+     * Covers the model loaded by {@link #loadChucker(URL)} and the parallel flag, which changes
+     * how candidates are ranked.
+     */
+    @Override
+    protected String getModelId() {
+        String id = "ner:" + chunkerModel.getUrl() + (parallel ? "?parallel=true" : "");
+        if (confidenceThreshold <= 0.0 && maxChunks <= 0) {
+            return id;
+        }
+        return String.format("%s%sconfidence=%s&max=%d", id, parallel ? "&" : "?", confidenceThreshold, maxChunks);
+    }
+
+    /**
+     * Only parallel chunking segments the text at sentence boundaries, so only then is the
+     * sentence view reused. No mode reads the token view.
+     */
+    @Override
+    protected boolean usesSentenceView() {
+        return parallel;
     }
 
     @Override
-    public String execute(String input) {
-        // Step #1: Parse the input.
-        Data data = Serializer.parse(input, Data.class);
-
-        // Step #2: Check the discriminator
-        final String discriminator = data.getDiscriminator();
-        if (discriminator.equals(Discriminators.Uri.ERROR)) {
-            // Return the input unchanged.
-            return input;
-        }
-
-        // Step #3: Extract the text.
-        Container container = null;
-        if (discriminator.equals(Discriminators.Uri.TEXT)) {
-            container = new Container();
-            container.setText(data.getPayload().toString());
-        } else if (discriminator.equals(Discriminators.Uri.LAPPS)) {
-            container = new Container((Map) data.getPayload());
-        } else {
-            // This is a format we don't accept.
-            String message = String.format("Unsupported discriminator type: %s", discriminator);
-            return new Data<String>(Discriminators.Uri.ERROR, message).asJson();
-        }
-
-        // Step #4: Create a new View
+    protected View annotate(Container container) {
+        // Step #1: Create a new View
         View view = container.newView();
 
-        // Step #5: Chuck the text and add annotations.
+        // Step #2: Chuck the text and add annotations.
         String text = container.getText();
-
-        if (text == null || text.isEmpty()) {
-            return input;
+        // Per-request settings are checked like the setters, a bad one fails the request.
+        double threshold = checkThreshold(setting(container, CONFIDENCE_THRESHOLD, confidenceThreshold));
+        double max = setting(container, MAX_CHUNKS, this.maxChunks);
+        if (max != Math.rint(max) || max > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(String.format("Invalid %s: %s", MAX_CHUNKS, max));
         }
-
-        Chunking chunking = chunker.chunk(text);
-        int i = 1;
+        int maxChunks = checkMaxChunks((int) max);
+        Map metadata = container.getMetadata();
+        String model = metadata == null || metadata.get(MODEL) == null ? null : metadata.get(MODEL).toString();
+        Chunker chunker = model == null ? this.chunker : model(model);
+        // Parallel mode reuses the splitter's sentences; the chunker always tokenizes itself.
+        Chunking chunking = chunk(chunker, text, splitterSentenceEnds(container), threshold, maxChunks);
         for (Chunk chunk : chunking.chunkSet()) {
-            Annotation a = view.newAnnotation("lingpipe-chuck-" + i, Discriminators.Uri.NE, chunk.start(), chunk.end());
-            a.addFeature(Features.Token.WORD, text.substring(chunk.start(), chunk.end()));
-            a.addFeature(Features.Token.TYPE, chunk.type());
-            a.addFeature("score", String.valueOf(chunk.score()));
+            newAnnotation(view, chunk, 0, text.substring(chunk.start(), chunk.end()));
         }
 
-        // Step #6: Update the view's metadata. Each view contains metadata about the
+        // Step #3: Update the view's metadata. Each view contains metadata about the
         // annotations it contains, in particular the name of the tool that produced the
         // annotations.
-        view.addContains(Discriminators.Uri.NE, this.getClass().getName(), "ner:lingpipe-en-news-muc-6");
-
-        // Step #7: Create a DataContainer with the result.
-        data = new DataContainer(container);
+        String tagSet = model == null ? "ner:lingpipe-en-news-muc-6" : "ner:" + model;
+        view.addContains(Uri.NE, this.getClass().getName(), tagSet);
+        if (model != null) {
+            view.getMetadata().put(MODEL, model);
+        }
+        if (threshold > 0.0 || maxChunks > 0) {
+            view.getMetadata().put(CONFIDENCE_THRESHOLD, threshold);
+            view.getMetadata().put(MAX_CHUNKS, maxChunks);
+        }
+        return view;
+    }
 
-        // Step #8: Serialize the data object and return the JSON.
-        return data.asJson();
+    /**
+     * Returns the chunker of the model a request selected, loading it if needed.
+     *
+     * @throws IllegalArgumentException if there is no such model
+     * @throws IllegalStateException    if the model cannot be loaded
+     */
+    private Chunker model(String name) {
+        NerModels models = this.models;
+        if (models == null) {
+            throw new IllegalArgumentException(String.format("Unknown NER model %s, no models are configured", name));
+        }
+        try {
+            return models.get(name);
+        } catch (IOException | ClassNotFoundException e) {
+            throw new IllegalStateException(String.format("Unable to load NER model %s: %s", name, e), e);
+        }
+    }
 
+    /**
+     * Returns the numeric container metadata entry {@code key}, or {@code defaultValue}
+     * if the request does not set it.
+     */
+    private static double setting(Container container, String key, double defaultValue) {
+        Map metadata = container.getMetadata();
+        Object value = metadata == null ? null : metadata.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return value instanceof Number ? ((Number) value).doubleValue() : Double.parseDouble(value.toString());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("Invalid %s: %s", key, value));
+        }
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,310 @@
+/*
+ * Copyright 2014 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package edu.cmu.lti.oaqa.lapps;
+
+import org.lappsgrid.metadata.IOSpecification;
+import org.lappsgrid.serialization.Data;
+import org.lappsgrid.serialization.DataContainer;
+import org.lappsgrid.serialization.Serializer;
+import org.lappsgrid.serialization.lif.Annotation;
+import org.lappsgrid.serialization.lif.Container;
+import org.lappsgrid.serialization.lif.View;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.lappsgrid.discriminator.Discriminators.Uri;
+
+/**
+ * Runs several Lingpipe services in order on one in-memory {@link Container}, so the
+ * input is parsed once and the result is serialized once, and publishes them as a
+ * single LAPPS service.
+ */
+public class LingpipePipeline extends AbstractLingpipeService {
+
+    private final List<AbstractLingpipeService> stages;
+
+    /**
+     * Creates the standard tokenizer, sentence splitter, tagger and NER chain.
+     */
+    public LingpipePipeline() throws IOException, ClassNotFoundException {
+        this(new LingpipeTokenizer(), new LingpipeSentenceSpliter(), new LingpipeTagger(), new LingpipeNER());
+    }
+
+    public LingpipePipeline(AbstractLingpipeService... stages) {
+        super();
+        if (stages.length == 0) {
+            throw new IllegalArgumentException("A pipeline needs at least one stage");
+        }
+        this.stages = Collections.unmodifiableList(new ArrayList<>(Arrays.asList(stages)));
+
+        StringBuilder description = new StringBuilder("Lingpipe pipeline:");
+        Set<String> required = new LinkedHashSet<>();
+        Set<String> produced = new LinkedHashSet<>();
+        for (AbstractLingpipeService stage : stages) {
+            description.append(stage == stages[0] ? " " : " -> ").append(stage.metadata.getDescription());
+            // Only what no earlier stage produces is required from the input.
+            IOSpecification stageRequires = stage.metadata.getRequires();
+            if (stageRequires != null && stageRequires.getAnnotations() != null) {
+                for (String annotation : stageRequires.getAnnotations()) {
+                    if (!produced.contains(annotation)) {
+                        required.add(annotation);
+                    }
+                }
+            }
+            IOSpecification stageProduces = stage.metadata.getProduces();
+            if (stageProduces != null && stageProduces.getAnnotations() != null) {
+                produced.addAll(stageProduces.getAnnotations());
+            }
+        }
+        metadata.setDescription(description.toString());
+
+        // JSON for input information
+        IOSpecification requires = new IOSpecification();
+        requires.addFormats(Uri.TEXT, Uri.LAPPS);
+        requires.addLanguage("en");             // Source language
+        for (String annotation : required) {
+            requires.addAnnotation(annotation);
+        }
+
+        // JSON for output information
+        IOSpecification produces = new IOSpecification();
+        produces.addFormat(Uri.LAPPS);          // LIF (form)
+        for (String annotation : produced) {
+            produces.addAnnotation(annotation);
+        }
+        produces.addLanguage("en");             // Target language
+
+        // Embed I/O metadata JSON objects
+        metadata.setRequires(requires);
+        metadata.setProduces(produces);
+    }
+
+    public List<AbstractLingpipeService> getStages() {
+        return stages;
+    }
+
+    @Override
+    protected String getModelId() {
+        StringBuilder id = new StringBuilder();
+        for (AbstractLingpipeService stage : stages) {
+            id.append(id.length() == 0 ? "" : " -> ").append(stage.getModelId());
+        }
+        return id.toString();
+    }
+
+    /**
+     * Later stages read the views added by earlier ones.
+     */
+    @Override
+    protected boolean isTextOnly() {
+        return false;
+    }
+
+    /**
+     * Runs every stage on the container and returns the view added by the last one.
+     */
+    @Override
+    protected View annotate(Container container) {
+        View view = null;
+        for (AbstractLingpipeService stage : stages) {
+            view = stage.annotate(container);
+        }
+        return view;
+    }
+
+    /**
+     * Updates the JSON LIF output of this pipeline after the text in {@code [start, end)}
+     * was replaced by {@code replacement}.
+     *
+     * @see #reannotate(Container, int, int, String)
+     */
+    public String reannotate(String previous, int start, int end, String replacement) {
+        Data data = Serializer.parse(previous, Data.class);
+        if (!Uri.LAPPS.equals(data.getDiscriminator())) {
+            return error(String.format("Unsupported discriminator type: %s", data.getDiscriminator()));
+        }
+        Container container = new Container((Map) data.getPayload());
+        try {
+            reannotate(container, start, end, replacement);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            return error(e.getMessage());
+        }
+        return new DataContainer(container).asJson();
+    }
+
+    /**
+     * Updates a container annotated by this pipeline, in place, after the text in
+     * {@code [start, end)} was replaced by {@code replacement}.
+     * <p>
+     * Only the sentences touching the edit, plus the sentence on either side of it, are
+     * run through the stages again. When the edit moves a sentence boundary, for example
+     * by deleting or inserting a sentence-final period, the region grows by another
+     * sentence until it starts and ends at boundaries of the new text; their annotations replace the old ones in the views
+     * the pipeline added, and the annotations after them are shifted by the change in
+     * length. Annotations of other views that overlap the re-annotated sentences are
+     * dropped, as nothing can recompute them.
+     *
+     * @return the container
+     * @throws IllegalArgumentException if the edit is out of range or the container was not
+     *                                  annotated by this pipeline
+     */
+    public Container reannotate(Container container, int start, int end, String replacement) {
+        String text = container.getText();
+        if (text == null || start < 0 || start > end || end > text.length()) {
+            throw new IllegalArgumentException(String.format("Invalid edit [%d, %d)", start, end));
+        }
+        List<View> views = container.getViews();
+        if (views == null || views.size() < stages.size()) {
+            throw new IllegalArgumentException("Unable to process input: not annotated by this pipeline");
+        }
+
+        // Step #1: Find the sentences to re-annotate, in the old text: the ones touching the
+        // edit plus one more on either side. Sentence boundaries are offsets in bounds.
+        int[] bounds = boundaries(LingpipeTagger.sentenceEnds(container, text), text.length());
+        int last = bounds.length - 1;
+        int lo = 0;
+        int hi = last;
+        for (int i = 0; i < bounds.length; i++) {
+            if (bounds[i] < start) {
+                lo = i;
+            } else if (bounds[i] > end) {
+                hi = i;
+                break;
+            }
+        }
+        lo = Math.max(lo - 1, 0);
+        hi = Math.min(hi + 1, last);
+        int delta = replacement.length() - (end - start);
+        String newText = text.substring(0, start) + replacement + text.substring(end);
+
+        // Step #1.1: The edit can move a boundary next to it, e.g. by deleting or inserting
+        // a sentence-final period. Widen the region until the new text still splits at
+        // both of its ends.
+        char[] cs = newText.toCharArray();
+        while (true) {
+            int from = bounds[Math.max(lo - 1, 0)];
+            int to = bounds[Math.min(hi + 1, last)] + delta;
+            int[] ends = LingpipeSentenceSpliter.sentenceEnds(cs, from, to);
+            boolean startHolds = lo == 0 || Arrays.binarySearch(ends, bounds[lo]) >= 0;
+            boolean endHolds = hi == last || Arrays.binarySearch(ends, bounds[hi] + delta) >= 0;
+            if (startHolds && endHolds) {
+                break;
+            }
+            lo = startHolds ? lo : lo - 1;
+            hi = endHolds ? hi : hi + 1;
+        }
+        int regionStart = bounds[lo];
+        int regionEnd = bounds[hi];
+
+        // Step #2: Run the stages on those sentences alone.
+        Container region = new Container();
+        region.setText(newText.substring(regionStart, regionEnd + delta));
+        if (!region.getText().isEmpty()) {
+            for (AbstractLingpipeService stage : stages) {
+                stage.annotate(region);
+            }
+        }
+
+        // Step #3: Splice the new annotations into the views this pipeline added, and keep
+        // or shift the annotations outside the region everywhere. An annotation object can
+        // sit in several views, the identity sets make sure it moves only once.
+        Set<Annotation> shifted = Collections.newSetFromMap(new IdentityHashMap<Annotation, Boolean>());
+        int firstStageView = views.size() - stages.size();
+        for (int i = 0; i < views.size(); i++) {
+            View view = views.get(i);
+            List<Annotation> replacing = null;
+            if (i >= firstStageView && !region.getText().isEmpty()) {
+                AbstractLingpipeService stage = stages.get(i - firstStageView);
+                for (String type : stage.metadata.getProduces().getAnnotations()) {
+                    if (!view.contains(type)) {
+                        throw new IllegalArgumentException("Unable to process input: not annotated by this pipeline");
+                    }
+                }
+                replacing = region.getViews().get(i - firstStageView).getAnnotations();
+            }
+            view.setAnnotations(splice(view.getAnnotations(), replacing, regionStart, regionEnd, delta, shifted));
+        }
+        container.setText(newText);
+        return container;
+    }
+
+    /**
+     * Returns the sorted, distinct sentence boundaries of a text: 0, the sentence ends
+     * and the text length.
+     */
+    private static int[] boundaries(int[] sentenceEnds, int length) {
+        int[] bounds = new int[sentenceEnds.length + 2];
+        int n = 0;
+        bounds[n++] = 0;
+        for (int sentenceEnd : sentenceEnds) {
+            if (sentenceEnd > bounds[n - 1] && sentenceEnd < length) {
+                bounds[n++] = sentenceEnd;
+            }
+        }
+        if (length > bounds[n - 1]) {
+            bounds[n++] = length;
+        }
+        return Arrays.copyOf(bounds, n);
+    }
+
+    /**
+     * Returns the annotations before the region, then the region's new annotations moved
+     * to the document, then the annotations after the region shifted by {@code delta}.
+     */
+    private static List<Annotation> splice(List<Annotation> annotations, List<Annotation> replacing,
+                                           int regionStart, int regionEnd, int delta, Set<Annotation> shifted) {
+        List<Annotation> result = new ArrayList<>();
+        List<Annotation> after = new ArrayList<>();
+        if (annotations != null) {
+            for (Annotation annotation : annotations) {
+                Long start = annotation.getStart();
+                Long end = annotation.getEnd();
+                if (shifted.contains(annotation)) {
+                    // Already moved as part of an earlier view.
+                    (start >= regionEnd + delta ? after : result).add(annotation);
+                } else if (start == null || end == null || end <= regionStart) {
+                    result.add(annotation);
+                } else if (start >= regionEnd) {
+                    annotation.setStart(start + delta);
+                    annotation.setEnd(end + delta);
+                    shifted.add(annotation);
+                    after.add(annotation);
+                }
+            }
+        }
+        if (replacing != null) {
+            for (Annotation annotation : replacing) {
+                if (shifted.add(annotation)) {
+                    annotation.setStart(annotation.getStart() + regionStart);
+                    annotation.setEnd(annotation.getEnd() + regionStart);
+                }
+                result.add(annotation);
+            }
+        }
+        result.addAll(after);
+        return result;
+    }
+}
@@ -19,35 +19,27 @@ package edu.cmu.lti.oaqa.lapps;
 
 import com.aliasi.chunk.Chunk;
 import com.aliasi.chunk.Chunking;
+import com.aliasi.sentences.HeuristicSentenceModel;
 import com.aliasi.sentences.IndoEuropeanSentenceModel;
 import com.aliasi.sentences.SentenceChunker;
-import com.aliasi.sentences.SentenceModel;
 import com.aliasi.tokenizer.IndoEuropeanTokenizerFactory;
-import com.aliasi.tokenizer.Tokenizer;
 import com.aliasi.tokenizer.TokenizerFactory;
-import org.lappsgrid.api.ProcessingService;
 import org.lappsgrid.metadata.IOSpecification;
-import org.lappsgrid.metadata.ServiceMetadata;
-import org.lappsgrid.serialization.Data;
-import org.lappsgrid.serialization.DataContainer;
-import org.lappsgrid.serialization.Serializer;
 import org.lappsgrid.serialization.lif.Annotation;
 import org.lappsgrid.serialization.lif.Container;
 import org.lappsgrid.serialization.lif.View;
-import org.lappsgrid.vocabulary.Features;
 
 import java.util.Iterator;
-import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 import static org.lappsgrid.discriminator.Discriminators.Uri;
 
 public class LingpipeSentenceSpliter extends AbstractLingpipeService {
 
-    static final SentenceModel SENTENCE_MODEL  = new IndoEuropeanSentenceModel();
+    static final HeuristicSentenceModel SENTENCE_MODEL  = new IndoEuropeanSentenceModel();
     static final TokenizerFactory TOKENIZER_FACTORY = IndoEuropeanTokenizerFactory.INSTANCE;
     static final SentenceChunker SENTENCE_CHUNKER = new SentenceChunker(TOKENIZER_FACTORY,SENTENCE_MODEL);
+    static final SentenceScanner SENTENCE_SCANNER = new SentenceScanner(TOKENIZER_FACTORY, SENTENCE_MODEL);
 
 
     public LingpipeSentenceSpliter(){
@@ -72,54 +64,27 @@ public class LingpipeSentenceSpliter extends AbstractLingpipeService {
         metadata.setProduces(produces);
     }
 
-    @Override
-    public String execute(String input) {
-        // Step #1: Parse the input.
-        Data data = Serializer.parse(input, Data.class);
-
-        // Step #2: Check the discriminator
-        final String discriminator = data.getDiscriminator();
-        if (discriminator.equals(Uri.ERROR)) {
-            // Return the input unchanged.
-            return input;
-        }
-
-        // Step #3: Extract the token.
-        Container container = null;
-        if (discriminator.equals(Uri.TEXT)) {
-            container = new Container();
-            container.setText(data.getPayload().toString());
-        } else if (discriminator.equals(Uri.LAPPS)) {
-            container = new Container((Map) data.getPayload());
-        } else {
-            // This is a format we don't accept.
-            String message = String.format("Unsupported discriminator type: %s", discriminator);
-            return new Data<String>(Uri.ERROR, message).asJson();
-        }
+    /**
+     * Returns the sorted end offsets of the sentences found in {@code cs[start, end)}.
+     */
+    static int[] sentenceEnds(char[] cs, int start, int end) {
+        return SENTENCE_SCANNER.sentenceEnds(cs, start, end);
+    }
 
-//        List<View> views = container.findViewsThatContain(Uri.TOKEN);
-//        if (views == null || views.size() == 0)
-//        {
-//            return new Data<String>(Uri.ERROR, "Unable to process input: no tokens found").asJson();
-//        }
-//        View tokenStep = views.get(0);
-//        List<Annotation> annotations = tokenStep.getAnnotations();
+    @Override
+    protected String getModelId() {
+        return "splitter:lingpipe-indo-european-sentence-model";
+    }
 
+    @Override
+    protected View annotate(Container container) {
         String text = container.getText();
-        if (text == null || text.isEmpty()) {
-            return input;
-        }
 
-        // Step #4: Create a new View
+        // Step #1: Create a new View
         View view = container.newView();
 
-        // Step #5: Chuck the text and add annotations.
-//        for (Annotation annotation : annotations) {
-//            String token
-//                    = text.substring(annotation.getStart().intValue(), (int) annotation.getEnd().intValue());
-//        }
-
-        Chunking chunking = SENTENCE_CHUNKER.chunk(text.toCharArray(), 0, text.length());
+        // Step #2: Chuck the text and add annotations.
+        Chunking chunking = SENTENCE_SCANNER.chunk(text.toCharArray(), 0, text.length());
         Set<Chunk> sentences = chunking.chunkSet();
         int i = 1;
         for (Iterator<Chunk> it = sentences.iterator(); it.hasNext(); ) {
@@ -129,17 +94,11 @@ public class LingpipeSentenceSpliter extends AbstractLingpipeService {
             Annotation a = view.newAnnotation("lingpipe-sentence-" + i, Uri.SENTENCE, start, end);
         }
 
-        // Step #6: Update the view's metadata. Each view contains metadata about the
+        // Step #3: Update the view's metadata. Each view contains metadata about the
         // annotations it contains, in particular the name of the tool that produced the
         // annotations.
         view.addContains(Uri.SENTENCE, this.getClass().getName(), "tokenizer:lingpipe-indo-european-tokenizer");
-
-        // Step #7: Create a DataContainer with the result.
-        data = new DataContainer(container);
-
-        // Step #8: Serialize the data object and return the JSON.
-        return data.asJson();
-
+        return view;
     }
 
 }
\ No newline at end of file
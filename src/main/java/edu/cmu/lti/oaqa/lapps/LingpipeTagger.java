@@ -17,46 +17,60 @@
 
 package edu.cmu.lti.oaqa.lapps;
 
-import com.aliasi.chunk.Chunk;
-import com.aliasi.chunk.Chunker;
-import com.aliasi.chunk.Chunking;
 import com.aliasi.hmm.HiddenMarkovModel;
 import com.aliasi.hmm.HmmDecoder;
-import com.aliasi.sentences.IndoEuropeanSentenceModel;
-import com.aliasi.sentences.SentenceChunker;
-import com.aliasi.sentences.SentenceModel;
 import com.aliasi.tag.Tagging;
-import com.aliasi.tokenizer.IndoEuropeanTokenizerFactory;
-import com.aliasi.tokenizer.TokenizerFactory;
-import com.aliasi.util.Streams;
-import org.lappsgrid.api.ProcessingService;
-import org.lappsgrid.discriminator.Discriminators;
 import org.lappsgrid.metadata.IOSpecification;
-import org.lappsgrid.metadata.ServiceMetadata;
-import org.lappsgrid.serialization.Data;
-import org.lappsgrid.serialization.DataContainer;
-import org.lappsgrid.serialization.Serializer;
 import org.lappsgrid.serialization.lif.Annotation;
 import org.lappsgrid.serialization.lif.Container;
 import org.lappsgrid.serialization.lif.View;
 import org.lappsgrid.vocabulary.Features;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.ForkJoinTask;
 
 import static org.lappsgrid.discriminator.Discriminators.Uri;
 
 public class LingpipeTagger extends AbstractLingpipeService {
 
-    HmmDecoder decoder;
+    /**
+     * Default number of tokens whose emission scores are cached.
+     */
+    static final int DEFAULT_EMISSION_CACHE_SIZE = 100000;
+
+    /**
+     * Class path resource of the Brown corpus model.
+     */
+    static final String DEFAULT_MODEL = "/models/pos-en-general-brown.HiddenMarkovModel";
+
+    private static final LiveInstances<LingpipeTagger> INSTANCES = new LiveInstances<>();
+
+    private HiddenMarkovModel hmm;
+
+    private int emissionCacheSize = DEFAULT_EMISSION_CACHE_SIZE;
+
+    /**
+     * Log2 emission scores shared by the decoders of all threads, or null if disabled.
+     */
+    private volatile EmissionCache emissionCache;
+
+    /**
+     * One decoder per thread, as {@code HmmDecoder} is not documented to be thread-safe.
+     * All of them share the immutable model and {@link #emissionCache}.
+     */
+    private volatile ThreadLocal<HmmDecoder> decoders;
+
+    private URL modelUrl;
 
     public LingpipeTagger() throws IOException, ClassNotFoundException {
         super();
 
         //load the model
         loadTagger();
+        INSTANCES.add(this);
+        getMetrics().gauge("emission_cache_hit_rate", LingpipeTagger::emissionCacheHitRate);
 
         metadata.setDescription("Lingpipe Brown-HMM pos targger");
         // JSON for input information
@@ -77,68 +91,130 @@ public class LingpipeTagger extends AbstractLingpipeService {
     }
 
     protected void loadTagger() throws IOException, ClassNotFoundException {
-        URL url = getClass().getResource("/models/pos-en-general-brown.HiddenMarkovModel");
+        URL url = getClass().getResource(DEFAULT_MODEL);
         loadTagger(url);
     }
 
     protected void loadTagger(URL url) throws IOException, ClassNotFoundException {
-        ObjectInputStream ois = new ObjectInputStream(url.openStream());
-        HiddenMarkovModel hmm = (HiddenMarkovModel) ois.readObject();
-        Streams.closeQuietly(ois);
-        decoder = new HmmDecoder(hmm);
+        hmm = ModelRegistry.get(url, HiddenMarkovModel.class);
+        modelUrl = url;
+        resetDecoders();
     }
 
-    @Override
-    public String execute(String input) {
-        // Step #1: Parse the input.
-        Data data = Serializer.parse(input, Data.class);
-
-        // Step #2: Check the discriminator
-        final String discriminator = data.getDiscriminator();
-        if (discriminator.equals(Uri.ERROR)) {
-            // Return the input unchanged.
-            return input;
+    public int getEmissionCacheSize() {
+        return emissionCacheSize;
+    }
+
+    /**
+     * Sets the number of tokens whose emission scores are cached, 0 to disable the cache.
+     * Token frequencies are skewed, so a cache covering the few thousand most frequent
+     * words answers most lookups. Starts over with an empty cache.
+     */
+    public void setEmissionCacheSize(int emissionCacheSize) {
+        if (emissionCacheSize < 0) {
+            throw new IllegalArgumentException("Emission cache size must not be negative: " + emissionCacheSize);
         }
+        this.emissionCacheSize = emissionCacheSize;
+        resetDecoders();
+    }
 
-        // Step #3: Extract the token.
-        Container container = null;
-        if (discriminator.equals(Uri.TEXT)) {
-            container = new Container();
-            container.setText(data.getPayload().toString());
-        } else if (discriminator.equals(Uri.LAPPS)) {
-            container = new Container((Map) data.getPayload());
-        } else {
-            // This is a format we don't accept.
-            String message = String.format("Unsupported discriminator type: %s", discriminator);
-            return new Data<String>(Uri.ERROR, message).asJson();
+    /**
+     * Returns the fraction of emission lookups answered from the cache.
+     */
+    public double getEmissionCacheHitRate() {
+        EmissionCache cache = emissionCache;
+        return cache == null ? 0.0 : cache.getHitRate();
+    }
+
+    /**
+     * Returns the fraction of emission lookups answered from the cache, over the caches of
+     * all live taggers together.
+     */
+    static double emissionCacheHitRate() {
+        long hits = 0;
+        long lookups = 0;
+        for (LingpipeTagger tagger : INSTANCES.snapshot()) {
+            EmissionCache cache = tagger.emissionCache;
+            if (cache != null) {
+                long cacheHits = cache.getHits();
+                hits += cacheHits;
+                lookups += cacheHits + cache.getMisses();
+            }
         }
+        return lookups == 0 ? 0.0 : (double) hits / lookups;
+    }
+
+    private void resetDecoders() {
+        emissionCache = emissionCacheSize > 0 ? new EmissionCache(emissionCacheSize) : null;
+        final HiddenMarkovModel hmm = this.hmm;
+        decoders = ThreadLocal.withInitial(() -> newDecoder(hmm));
+    }
 
+    /**
+     * Creates the decoder for one thread. The Viterbi search used by {@code tag} reads
+     * log2 emission scores, so only the log2 cache is set.
+     */
+    protected HmmDecoder newDecoder(HiddenMarkovModel hmm) {
+        return new HmmDecoder(hmm, null, emissionCache);
+    }
+
+    /**
+     * Returns the calling thread's decoder.
+     */
+    HmmDecoder decoder() {
+        return decoders.get();
+    }
+
+    public HiddenMarkovModel getHmm() {
+        return hmm;
+    }
+
+    /**
+     * Covers the model loaded by {@link #loadTagger(URL)}.
+     */
+    @Override
+    protected String getModelId() {
+        return "tagger:" + modelUrl;
+    }
+
+    @Override
+    protected boolean isTextOnly() {
+        return false;
+    }
+
+    @Override
+    protected View annotate(Container container) {
+        // Step #1: Find the tokens.
         List<View> views = container.findViewsThatContain(Uri.TOKEN);
         if (views == null || views.size() == 0) {
-            return new Data<String>(Uri.ERROR, "Unable to process input: no tokens found").asJson();
+            throw new IllegalArgumentException("Unable to process input: no tokens found");
         }
         View tokenStep = views.get(0);
         List<Annotation> annotations = tokenStep.getAnnotations();
-
         String text = container.getText();
-        if (text == null || text.isEmpty()) {
-            return input;
-        }
 
-        // Step #4: Create a new View
+        // Step #2: Create a new View
         View view = container.newView();
 
-        // Step #5: Chuck the text and add annotations.
-        ArrayList<String> tokens = new ArrayList<>();
-        for (Annotation annotation : annotations) {
-            String token = text.substring(annotation.getStart().intValue(), annotation.getEnd().intValue());
-            tokens.add(token);
+        // Step #3: Tag the tokens sentence by sentence and add annotations. Each worker
+        // decodes with its own decoder, so the sentences are decoded concurrently.
+        List<List<Annotation>> sentences = groupBySentence(annotations, sentenceEnds(container, text));
+        List<ForkJoinTask<Tagging<String>>> tasks = new ArrayList<>(sentences.size());
+        for (List<Annotation> sentence : sentences) {
+            final ArrayList<String> tokens = new ArrayList<>(sentence.size());
+            for (Annotation annotation : sentence) {
+                String token = text.substring(annotation.getStart().intValue(), annotation.getEnd().intValue());
+                tokens.add(token);
+            }
+            tasks.add(WORKERS.submit(() -> decoder().tag(tokens)));
         }
-        Tagging<String> tagging = decoder.tag(tokens);
-        if (tagging.size() != annotations.size()) {
-            return new Data<String>(Uri.ERROR, "Tagger error: input/output sizes are different.").asJson();
-        } else {
-            Iterator<Annotation> annoIter = annotations.iterator();
+        for (int i = 0; i < sentences.size(); i++) {
+            List<Annotation> sentence = sentences.get(i);
+            Tagging<String> tagging = tasks.get(i).join();
+            if (tagging.size() != sentence.size()) {
+                throw new IllegalStateException("Tagger error: input/output sizes are different.");
+            }
+            Iterator<Annotation> annoIter = sentence.iterator();
             Iterator<String> tagIter = tagging.tags().iterator();
             while (annoIter.hasNext() && tagIter.hasNext()) {
                 Annotation anno = annoIter.next();
@@ -147,16 +223,53 @@ public class LingpipeTagger extends AbstractLingpipeService {
             }
         }
 
-        // Step #6: Update the view's metadata. Each view contains metadata about the
+        // Step #4: Update the view's metadata. Each view contains metadata about the
         // annotations it contains, in particular the name of the tool that produced the annotations.
         view.addContains(Uri.POS, this.getClass().getName(), "tagger:lingpipe-brown-hmm-tagger");
+        return view;
+    }
 
-        // Step #7: Create a DataContainer with the result.
-        data = new DataContainer(container);
-
-        // Step #8: Serialize the data object and return the JSON.
-        return data.asJson();
+    /**
+     * Returns the sorted sentence end offsets, taken from an existing sentence view when
+     * the input has one and computed with the sentence chunker otherwise.
+     */
+    static int[] sentenceEnds(Container container, String text) {
+        List<View> views = container.findViewsThatContain(Uri.SENTENCE);
+        if (views == null || views.size() == 0) {
+            return LingpipeSentenceSpliter.sentenceEnds(text.toCharArray(), 0, text.length());
+        }
+        List<Annotation> sentences = views.get(0).getAnnotations();
+        int[] ends = new int[sentences.size()];
+        for (int i = 0; i < ends.length; i++) {
+            ends[i] = sentences.get(i).getEnd().intValue();
+        }
+        Arrays.sort(ends);
+        return ends;
+    }
 
+    /**
+     * Splits the token annotations, in document order, into one list per sentence. Tokens
+     * after the last sentence end form a final group of their own.
+     */
+    static List<List<Annotation>> groupBySentence(List<Annotation> tokens, int[] sentenceEnds) {
+        List<List<Annotation>> sentences = new ArrayList<>();
+        List<Annotation> sentence = null;
+        int k = 0;
+        for (Annotation token : tokens) {
+            int start = token.getStart().intValue();
+            if (k < sentenceEnds.length && start >= sentenceEnds[k]) {
+                while (k < sentenceEnds.length && start >= sentenceEnds[k]) {
+                    k++;
+                }
+                sentence = null;
+            }
+            if (sentence == null) {
+                sentence = new ArrayList<>();
+                sentences.add(sentence);
+            }
+            sentence.add(token);
+        }
+        return sentences;
     }
 
 }
\ No newline at end of file
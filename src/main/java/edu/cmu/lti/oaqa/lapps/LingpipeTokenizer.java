@@ -17,29 +17,17 @@
 
 package edu.cmu.lti.oaqa.lapps;
 
-import com.aliasi.chunk.Chunk;
-import com.aliasi.chunk.Chunker;
-import com.aliasi.chunk.Chunking;
 import com.aliasi.tokenizer.IndoEuropeanTokenizerFactory;
 import com.aliasi.tokenizer.Tokenizer;
 import com.aliasi.tokenizer.TokenizerFactory;
-import com.aliasi.util.Streams;
-import org.lappsgrid.api.ProcessingService;
-import org.lappsgrid.discriminator.Discriminators;
+import com.fasterxml.jackson.core.JsonGenerator;
 import org.lappsgrid.metadata.IOSpecification;
-import org.lappsgrid.metadata.ServiceMetadata;
-import org.lappsgrid.serialization.Data;
-import org.lappsgrid.serialization.DataContainer;
-import org.lappsgrid.serialization.Serializer;
 import org.lappsgrid.serialization.lif.Annotation;
 import org.lappsgrid.serialization.lif.Container;
 import org.lappsgrid.serialization.lif.View;
 import org.lappsgrid.vocabulary.Features;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.net.URL;
-import java.util.Map;
 
 import static org.lappsgrid.discriminator.Discriminators.Uri;
 
@@ -48,6 +36,21 @@ public class LingpipeTokenizer extends AbstractLingpipeService {
     static final TokenizerFactory TOKENIZER_FACTORY
             = IndoEuropeanTokenizerFactory.INSTANCE;
 
+    /**
+     * Texts longer than this get a buffer of their own instead of growing the per-thread
+     * buffer, so one huge document does not pin its size on every worker thread.
+     */
+    static final int MAX_REUSED_BUFFER = 1 << 20;
+
+    private static final String TOKEN_ID = "lingpipe-token-1";
+
+    private static final ThreadLocal<char[]> BUFFER = ThreadLocal.withInitial(() -> new char[4096]);
+
+    private static final ThreadLocal<TokenOffsets> OFFSETS = ThreadLocal.withInitial(TokenOffsets::new);
+
+    private static final AnnotationLayout TOKEN_LAYOUT
+            = new AnnotationLayout(TOKEN_ID, Uri.TOKEN, Features.Token.WORD);
+
     public LingpipeTokenizer(){
         super();
 
@@ -70,60 +73,91 @@ public class LingpipeTokenizer extends AbstractLingpipeService {
     }
 
     @Override
-    public String execute(String input) {
-        // Step #1: Parse the input.
-        Data data = Serializer.parse(input, Data.class);
-
-        // Step #2: Check the discriminator
-        final String discriminator = data.getDiscriminator();
-        if (discriminator.equals(Uri.ERROR)) {
-            // Return the input unchanged.
-            return input;
-        }
-
-        // Step #3: Extract the text.
-        Container container = null;
-        if (discriminator.equals(Uri.TEXT)) {
-            container = new Container();
-            container.setText(data.getPayload().toString());
-        } else if (discriminator.equals(Uri.LAPPS)) {
-            container = new Container((Map) data.getPayload());
-        } else {
-            // This is a format we don't accept.
-            String message = String.format("Unsupported discriminator type: %s", discriminator);
-            return new Data<String>(Uri.ERROR, message).asJson();
-        }
+    protected String getModelId() {
+        return "tokenizer:lingpipe-indo-european-tokenizer";
+    }
 
-        // Step #4: Create a new View
+    @Override
+    protected View annotate(Container container) {
+        // Step #1: Create a new View
         View view = container.newView();
 
-        // Step #5: Chuck the text and add annotations.
+        // Step #2: Tokenize the text and add annotations.
         String text = container.getText();
-
-        if (text == null || text.isEmpty()) {
-            return input;
+        TokenOffsets offsets = tokenize(text);
+        for (int i = 0; i < offsets.size; i++) {
+            int start = offsets.starts[i];
+            int end = offsets.ends[i];
+            Annotation a = view.newAnnotation(TOKEN_ID, Uri.TOKEN, start, end);
+            a.addFeature(Features.Token.WORD, text.substring(start, end));
         }
 
-        Tokenizer tokenizer = TOKENIZER_FACTORY.tokenizer(text.toCharArray(), 0, text.length());
-        String token = null;
-        int i = 1;
-        while ((token = tokenizer.nextToken()) != null) {
-            Annotation a = view.newAnnotation("lingpipe-token-" + i, Uri.TOKEN,
-                    tokenizer.lastTokenStartPosition(), tokenizer.lastTokenEndPosition());
-            a.addFeature(Features.Token.WORD, token);
-        }
-
-        // Step #6: Update the view's metadata. Each view contains metadata about the
+        // Step #3: Update the view's metadata. Each view contains metadata about the
         // annotations it contains, in particular the name of the tool that produced the
         // annotations.
+        addContains(view);
+        return view;
+    }
+
+    /**
+     * Writes the token view straight from the token offsets: no {@link Annotation},
+     * feature map or word string is created for the tokens.
+     */
+    @Override
+    protected int writeView(Container scratch, JsonGenerator out) throws IOException {
+        String text = scratch.getText();
+        final char[] cs = chars(text);
+        final TokenOffsets offsets = tokenize(cs, text.length());
+
+        View view = scratch.newView();
+        addContains(view);
+        StreamingLif.writeView(view, out, generator -> {
+            for (int i = 0; i < offsets.size; i++) {
+                TOKEN_LAYOUT.write(generator, offsets.starts[i], offsets.ends[i], cs);
+            }
+        });
+        return offsets.size;
+    }
+
+    private void addContains(View view) {
         view.addContains(Uri.TOKEN, this.getClass().getName(), "tokenizer:lingpipe-indo-european-tokenizer");
+    }
 
-        // Step #7: Create a DataContainer with the result.
-        data = new DataContainer(container);
+    /**
+     * Tokenizes the text into this thread's reusable offset arrays, which stay valid
+     * until the thread tokenizes again. Like the char buffer, they are only reused for
+     * texts of up to {@link #MAX_REUSED_BUFFER} characters, so they never grow past the
+     * tokens of such a text.
+     */
+    static TokenOffsets tokenize(String text) {
+        return tokenize(chars(text), text.length());
+    }
 
-        // Step #8: Serialize the data object and return the JSON.
-        return data.asJson();
+    static TokenOffsets tokenize(char[] cs, int length) {
+        TokenOffsets offsets = length > MAX_REUSED_BUFFER ? new TokenOffsets() : OFFSETS.get();
+        offsets.clear();
+        Tokenizer tokenizer = TOKENIZER_FACTORY.tokenizer(cs, 0, length);
+        while (tokenizer.nextToken() != null) {
+            offsets.add(tokenizer.lastTokenStartPosition(), tokenizer.lastTokenEndPosition());
+        }
+        return offsets;
+    }
 
+    /**
+     * Copies the text into this thread's reusable char buffer.
+     */
+    static char[] chars(String text) {
+        int length = text.length();
+        char[] buffer = BUFFER.get();
+        if (buffer.length < length) {
+            if (length > MAX_REUSED_BUFFER) {
+                return text.toCharArray();
+            }
+            buffer = new char[Math.min(MAX_REUSED_BUFFER, Math.max(length, 2 * buffer.length))];
+            BUFFER.set(buffer);
+        }
+        text.getChars(0, length, buffer, 0);
+        return buffer;
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2014 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package edu.cmu.lti.oaqa.lapps;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * The live instances of a service class, for gauges that add up over all of them. A gauge
+ * is published once per class, while instances come and go, e.g. for a pipeline. They are
+ * held weakly, so being counted does not keep an instance alive.
+ */
+final class LiveInstances<T> {
+
+    private final Set<T> instances = Collections.newSetFromMap(new WeakHashMap<>());
+
+    synchronized void add(T instance) {
+        instances.add(instance);
+    }
+
+    synchronized List<T> snapshot() {
+        return new ArrayList<>(instances);
+    }
+}
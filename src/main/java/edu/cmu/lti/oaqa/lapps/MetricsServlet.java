@@ -0,0 +1,60 @@
+/*
+ * Copyright 2014 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package edu.cmu.lti.oaqa.lapps;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+
+/**
+ * Serves the {@link ServiceMetrics} of every service used so far, and the load cost of
+ * every model in the {@link ModelRegistry}, as plain text in the Prometheus exposition
+ * format.
+ */
+public class MetricsServlet extends HttpServlet {
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        StringBuilder out = new StringBuilder(4096);
+        ServiceMetrics.writeText(ServiceMetrics.all(), out);
+        Collection<ModelRegistry.Model> models = ModelRegistry.models();
+        ServiceMetrics.type(out, "lingpipe_model_load_seconds", "gauge");
+        for (ModelRegistry.Model model : models) {
+            ServiceMetrics.line(out, "lingpipe_model_load_seconds", labels(model), model.getLoadMillis() / 1000.0);
+        }
+        ServiceMetrics.type(out, "lingpipe_model_serialized_bytes", "gauge");
+        for (ModelRegistry.Model model : models) {
+            ServiceMetrics.line(out, "lingpipe_model_serialized_bytes", labels(model), model.getSerializedBytes());
+        }
+        ServiceMetrics.type(out, "lingpipe_model_heap_bytes", "gauge");
+        for (ModelRegistry.Model model : models) {
+            ServiceMetrics.line(out, "lingpipe_model_heap_bytes", labels(model), model.getHeapBytes());
+        }
+
+        response.setContentType("text/plain; version=0.0.4");
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.getWriter().write(out.toString());
+    }
+
+    private static String labels(ModelRegistry.Model model) {
+        return ServiceMetrics.label("model", model.getUrl().toExternalForm());
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2014 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package edu.cmu.lti.oaqa.lapps;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import java.net.URL;
+
+/**
+ * Starts loading the Lingpipe models on background threads as soon as the web application
+ * is deployed. Deserializing them then overlaps with the start of the service container
+ * and with each other, instead of running one after the other when the first services are
+ * created; those wait in {@link ModelRegistry} for the loads already under way.
+ * <p>
+ * The {@code preloadModels} context parameter lists the class path resources to load,
+ * comma-separated, by default the tagger and NER models. An empty value disables it.
+ */
+public class ModelPreloader implements ServletContextListener {
+
+    static final String DEFAULT_MODELS = LingpipeTagger.DEFAULT_MODEL + "," + LingpipeNER.DEFAULT_MODEL;
+
+    @Override
+    public void contextInitialized(ServletContextEvent event) {
+        ServletContext context = event.getServletContext();
+        String resources = context.getInitParameter("preloadModels");
+        for (String resource : (resources == null ? DEFAULT_MODELS : resources).split(",")) {
+            if (resource.trim().isEmpty()) {
+                continue;
+            }
+            URL url = ModelPreloader.class.getResource(resource.trim());
+            if (url == null) {
+                context.log("Model to preload not found: " + resource.trim());
+            } else {
+                ModelRegistry.preload(url);
+            }
+        }
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent event) {
+    }
+}
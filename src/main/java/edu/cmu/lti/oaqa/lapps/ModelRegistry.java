@@ -0,0 +1,306 @@
+/*
+ * Copyright 2014 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package edu.cmu.lti.oaqa.lapps;
+
+import com.aliasi.util.Streams;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Process-wide registry of deserialized Lingpipe models, keyed by model URL.
+ * <p>
+ * Each model is read once, on first request, and the same instance is handed to every
+ * service that asks for it afterwards. Concurrent requests for a model that is still
+ * loading wait for that load instead of starting a second one. The compiled Lingpipe
+ * models are immutable once read, so sharing them between services and threads is safe.
+ */
+public final class ModelRegistry {
+
+    private static final ConcurrentMap<String, FutureTask<Model>> MODELS = new ConcurrentHashMap<>();
+
+    static {
+        ServiceMetrics.register("ModelRegistry", "models", new Models());
+    }
+
+    private ModelRegistry() {
+    }
+
+    /**
+     * Returns the model stored at {@code url}, loading it if this is the first request.
+     */
+    public static <T> T get(URL url, Class<T> type) throws IOException, ClassNotFoundException {
+        return type.cast(model(url).get());
+    }
+
+    /**
+     * Returns the registry entry for the model stored at {@code url}, loading it if this
+     * is the first request. A failed load is not cached, so the next request retries it.
+     */
+    public static Model model(final URL url) throws IOException, ClassNotFoundException {
+        String key = url.toExternalForm();
+        FutureTask<Model> task = MODELS.get(key);
+        if (task == null) {
+            FutureTask<Model> created = new FutureTask<>(() -> Model.load(url));
+            task = MODELS.putIfAbsent(key, created);
+            if (task == null) {
+                task = created;
+                created.run();
+            }
+        }
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading model " + key, e);
+        } catch (ExecutionException e) {
+            MODELS.remove(key, task);
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof ClassNotFoundException) {
+                throw (ClassNotFoundException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException("Unable to load model " + key, cause);
+        }
+    }
+
+    /**
+     * Starts loading the model stored at {@code url} on a background thread, unless it is
+     * registered already, and returns at once. {@link #model(URL)} waits for that load
+     * instead of starting its own. A failed preload is dropped, so the next request retries.
+     *
+     * @return {@code true} if this call started the load
+     */
+    public static boolean preload(final URL url) {
+        final String key = url.toExternalForm();
+        final FutureTask<Model> created = new FutureTask<>(() -> Model.load(url));
+        if (MODELS.putIfAbsent(key, created) != null) {
+            return false;
+        }
+        Thread loader = new Thread(() -> {
+            created.run();
+            try {
+                created.get();
+            } catch (InterruptedException | ExecutionException e) {
+                MODELS.remove(key, created);
+            }
+        }, "lingpipe-model-preload");
+        loader.setDaemon(true);
+        loader.start();
+        return true;
+    }
+
+    /**
+     * Drops the model stored at {@code url} from the registry. Services holding a
+     * reference keep using it; the next request reloads it.
+     *
+     * @return {@code true} if the model was registered
+     */
+    public static boolean evict(URL url) {
+        return MODELS.remove(url.toExternalForm()) != null;
+    }
+
+    /**
+     * Returns the models that finished loading successfully.
+     */
+    public static Collection<Model> models() {
+        List<Model> models = new ArrayList<>();
+        for (FutureTask<Model> task : MODELS.values()) {
+            if (task.isDone()) {
+                try {
+                    models.add(task.get());
+                } catch (InterruptedException | ExecutionException e) {
+                    // Still loading elsewhere or failed, neither is reported.
+                }
+            }
+        }
+        return models;
+    }
+
+    /**
+     * JMX view of the loaded models, keyed by model URL.
+     */
+    public interface ModelsMXBean {
+
+        Map<String, Long> getLoadMillis();
+
+        Map<String, Long> getSerializedBytes();
+
+        Map<String, Long> getHeapBytes();
+    }
+
+    private static final class Models implements ModelsMXBean {
+
+        @Override
+        public Map<String, Long> getLoadMillis() {
+            Map<String, Long> values = new TreeMap<>();
+            for (Model model : models()) {
+                values.put(model.getUrl().toExternalForm(), model.getLoadMillis());
+            }
+            return values;
+        }
+
+        @Override
+        public Map<String, Long> getSerializedBytes() {
+            Map<String, Long> values = new TreeMap<>();
+            for (Model model : models()) {
+                values.put(model.getUrl().toExternalForm(), model.getSerializedBytes());
+            }
+            return values;
+        }
+
+        @Override
+        public Map<String, Long> getHeapBytes() {
+            Map<String, Long> values = new TreeMap<>();
+            for (Model model : models()) {
+                values.put(model.getUrl().toExternalForm(), model.getHeapBytes());
+            }
+            return values;
+        }
+    }
+
+    /**
+     * A loaded model together with the cost of loading it.
+     */
+    public static final class Model {
+
+        private final URL url;
+        private final Object model;
+        private final long loadMillis;
+        private final long serializedBytes;
+        private final long heapBytes;
+
+        Model(URL url, Object model, long loadMillis, long serializedBytes, long heapBytes) {
+            this.url = url;
+            this.model = model;
+            this.loadMillis = loadMillis;
+            this.serializedBytes = serializedBytes;
+            this.heapBytes = heapBytes;
+        }
+
+        static Model load(URL url) throws IOException, ClassNotFoundException {
+            Runtime runtime = Runtime.getRuntime();
+            long usedBefore = runtime.totalMemory() - runtime.freeMemory();
+            long startTime = System.nanoTime();
+
+            CountingInputStream in = new CountingInputStream(url.openStream());
+            ObjectInputStream ois = null;
+            Object model;
+            try {
+                ois = new ObjectInputStream(in);
+                model = ois.readObject();
+            } finally {
+                Streams.closeQuietly(ois != null ? ois : in);
+            }
+
+            long loadMillis = (System.nanoTime() - startTime) / 1000000L;
+            long usedAfter = runtime.totalMemory() - runtime.freeMemory();
+            return new Model(url, model, loadMillis, in.count, Math.max(0L, usedAfter - usedBefore));
+        }
+
+        public URL getUrl() {
+            return url;
+        }
+
+        public Object get() {
+            return model;
+        }
+
+        /**
+         * Wall-clock time spent reading and deserializing the model.
+         */
+        public long getLoadMillis() {
+            return loadMillis;
+        }
+
+        /**
+         * Size of the serialized model in bytes.
+         */
+        public long getSerializedBytes() {
+            return serializedBytes;
+        }
+
+        /**
+         * Approximate heap retained by the model, measured as the growth of used heap
+         * across the load. Loads running concurrently inflate each other's figure.
+         */
+        public long getHeapBytes() {
+            return heapBytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s [%d ms, %d bytes serialized, ~%d bytes heap]",
+                    url, loadMillis, serializedBytes, heapBytes);
+        }
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright 2014 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package edu.cmu.lti.oaqa.lapps;
+
+import com.aliasi.chunk.Chunker;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Named Lingpipe chunker models for {@link LingpipeNER}, loaded on first use and kept
+ * within a memory budget.
+ * <p>
+ * Models are loaded through the {@link ModelRegistry}, so a model is read once however
+ * many requests ask for it at the same time. When the loaded models exceed the budget,
+ * the least recently used ones are dropped from this manager and from the registry until
+ * they fit again; requests still running with a dropped model finish with it, and the
+ * next request for it reloads it. The most recently used model is never dropped, so a
+ * budget smaller than one model holds exactly one. Models {@link #pin pinned} by their
+ * owner, such as the default model of {@link LingpipeNER}, count against the budget but
+ * are never dropped, nor evicted from the registry through a name that refers to them.
+ * <p>
+ * The size of a model, and so the budget, is counted in serialized bytes. That is not the
+ * heap footprint, which {@link ModelRegistry.Model#getHeapBytes()} estimates, but unlike
+ * that estimate it does not depend on garbage collections or concurrent loads, so the
+ * same models are always dropped in the same order.
+ */
+public final class NerModels {
+
+    private final Map<String, URL> urls = new ConcurrentHashMap<>();
+
+    /**
+     * Loaded models in least recently used order, guarded by {@code this}.
+     */
+    private final LinkedHashMap<String, ModelRegistry.Model> loaded = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Models counted against the budget but never dropped, by URL, guarded by {@code this}.
+     */
+    private final Map<String, ModelRegistry.Model> pinned = new LinkedHashMap<>();
+
+    private volatile long heapBudget;
+
+    private List<String> warm = new ArrayList<>();
+
+    /**
+     * Registers a model under {@code name}, replacing any model registered under it.
+     */
+    public void register(String name, URL url) {
+        urls.put(name, url);
+        synchronized (this) {
+            ModelRegistry.Model model = loaded.get(name);
+            if (model != null && !model.getUrl().equals(url)) {
+                unload(name);
+            }
+        }
+    }
+
+    /**
+     * Registers models by name. A location is a URL, or a class path resource such as
+     * {@code /models/ne-en-news-muc6.AbstractCharLmRescoringChunker}.
+     */
+    public void setModels(Map<String, String> models) throws IOException {
+        for (Map.Entry<String, String> model : models.entrySet()) {
+            register(model.getKey(), resolve(model.getValue()));
+        }
+    }
+
+    private static URL resolve(String location) throws IOException {
+        if (location.startsWith("/")) {
+            URL url = NerModels.class.getResource(location);
+            if (url == null) {
+                throw new IOException("No such model resource: " + location);
+            }
+            return url;
+        }
+        try {
+            return new URL(location);
+        } catch (MalformedURLException e) {
+            throw new IOException("Invalid model location: " + location, e);
+        }
+    }
+
+    public Set<String> getNames() {
+        return new TreeMap<>(urls).keySet();
+    }
+
+    /**
+     * Returns the budget for the loaded models, in serialized bytes, or 0 for no limit.
+     */
+    public long getHeapBudget() {
+        return heapBudget;
+    }
+
+    public void setHeapBudget(long heapBudget) {
+        if (heapBudget < 0) {
+            throw new IllegalArgumentException("Model budget must not be negative: " + heapBudget);
+        }
+        this.heapBudget = heapBudget;
+        synchronized (this) {
+            evict();
+        }
+    }
+
+    /**
+     * Counts a model loaded by someone else, such as the default model of
+     * {@link LingpipeNER}, against the budget, and keeps it in the registry when a name
+     * registered for the same URL is dropped.
+     */
+    public synchronized void pin(ModelRegistry.Model model) {
+        pinned.put(model.getUrl().toExternalForm(), model);
+        evict();
+    }
+
+    /**
+     * Returns the models {@link #warm()} loads.
+     */
+    public List<String> getWarm() {
+        return Collections.unmodifiableList(warm);
+    }
+
+    /**
+     * Sets the models {@link #warm()} loads.
+     */
+    public void setWarm(List<String> names) {
+        this.warm = new ArrayList<>(names);
+    }
+
+    /**
+     * Loads the models set with {@link #setWarm(List)}, e.g. as the Spring init method,
+     * so the first requests for them do not wait for the load.
+     */
+    public void warm() throws IOException, ClassNotFoundException {
+        warm(warm);
+    }
+
+    public void warm(Collection<String> names) throws IOException, ClassNotFoundException {
+        for (String name : names) {
+            get(name);
+        }
+    }
+
+    /**
+     * Returns the model registered under {@code name}, loading it if it is not loaded.
+     *
+     * @throws IllegalArgumentException if no model is registered under {@code name}
+     */
+    public Chunker get(String name) throws IOException, ClassNotFoundException {
+        URL url = urls.get(name);
+        if (url == null) {
+            throw new IllegalArgumentException(String.format("Unknown NER model %s, available: %s",
+                    name, getNames()));
+        }
+        synchronized (this) {
+            ModelRegistry.Model model = loaded.get(name);
+            if (model != null && model.getUrl().equals(url)) {
+                return (Chunker) model.get();
+            }
+        }
+        // Loaded outside the lock, so requests for loaded models do not wait for it.
+        ModelRegistry.Model model = ModelRegistry.model(url);
+        if (!(model.get() instanceof Chunker)) {
+            ModelRegistry.evict(url);
+            throw new IllegalArgumentException(String.format("NER model %s at %s is not a chunker", name, url));
+        }
+        synchronized (this) {
+            loaded.put(name, model);
+            evict();
+        }
+        return (Chunker) model.get();
+    }
+
+    /**
+     * Returns the serialized size of each loaded model, in bytes, by name. Pinned models
+     * are not included unless a name refers to them.
+     */
+    public synchronized Map<String, Long> getModelBytes() {
+        Map<String, Long> sizes = new TreeMap<>();
+        for (Map.Entry<String, ModelRegistry.Model> model : loaded.entrySet()) {
+            sizes.put(model.getKey(), size(model.getValue()));
+        }
+        return sizes;
+    }
+
+    /**
+     * Returns the total serialized size of the loaded and pinned models, in bytes, counting
+     * a model several names refer to once.
+     */
+    public synchronized long getUsedBytes() {
+        Map<String, ModelRegistry.Model> models = new HashMap<>(pinned);
+        for (ModelRegistry.Model model : loaded.values()) {
+            models.put(model.getUrl().toExternalForm(), model);
+        }
+        long used = 0;
+        for (ModelRegistry.Model model : models.values()) {
+            used += size(model);
+        }
+        return used;
+    }
+
+    public synchronized int getLoadedCount() {
+        return loaded.size();
+    }
+
+    private static long size(ModelRegistry.Model model) {
+        return model.getSerializedBytes();
+    }
+
+    /**
+     * Drops the least recently used models, but never the most recently used one nor the
+     * pinned ones, until all fit the budget.
+     */
+    private void evict() {
+        long budget = heapBudget;
+        if (budget <= 0) {
+            return;
+        }
+        Iterator<String> names = new ArrayList<>(loaded.keySet()).iterator();
+        while (loaded.size() > 1 && getUsedBytes() > budget) {
+            unload(names.next());
+        }
+    }
+
+    /**
+     * Drops a name, and its model from the registry unless the model is pinned or another
+     * name refers to it.
+     */
+    private void unload(String name) {
+        ModelRegistry.Model model = loaded.remove(name);
+        if (model == null) {
+            return;
+        }
+        String url = model.getUrl().toExternalForm();
+        if (pinned.containsKey(url)) {
+            return;
+        }
+        for (ModelRegistry.Model other : loaded.values()) {
+            if (other.getUrl().toExternalForm().equals(url)) {
+                return;
+            }
+        }
+        ModelRegistry.evict(model.getUrl());
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d of %d NER models loaded, %d of %s bytes: %s", loaded.size(), urls.size(),
+                getUsedBytes(), heapBudget > 0 ? Long.toString(heapBudget) : "unlimited", getModelBytes());
+    }
+}
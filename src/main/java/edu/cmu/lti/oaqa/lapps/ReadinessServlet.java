@@ -0,0 +1,101 @@
+/*
+ * Copyright 2014 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package edu.cmu.lti.oaqa.lapps;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Readiness check for load balancers: answers 200 once every service class that is
+ * warmed up is {@link Warmup.State#READY}, and 503 with {@code Retry-After} before that.
+ * The body lists the state of each service.
+ * <p>
+ * At startup it warms up the services named in the {@code services} init parameter
+ * (comma-separated class names, by default the tagger and NER) one after the other on a
+ * background thread, each for at most {@code maxMillis} ms. It warms the instances that
+ * serve requests, from {@link Services}, so the code paths their settings select are the
+ * ones compiled; settings the service container applies after the warm-up has started are
+ * not covered. Configured instances can instead warm themselves up with
+ * {@link AbstractLingpipeService#warmUp()} as their Spring init method; an empty list
+ * only reports on such warm-ups.
+ */
+public class ReadinessServlet extends HttpServlet {
+
+    static final String DEFAULT_SERVICES = LingpipeTagger.class.getName() + "," + LingpipeNER.class.getName();
+
+    @Override
+    public void init() throws ServletException {
+        String classNames = getInitParameter("services");
+        String maxMillisParameter = getInitParameter("maxMillis");
+        final long maxMillis;
+        try {
+            maxMillis = maxMillisParameter == null ? Warmup.DEFAULT_MAX_MILLIS
+                    : Long.parseLong(maxMillisParameter.trim());
+        } catch (NumberFormatException e) {
+            throw new ServletException("Invalid init parameter maxMillis: " + maxMillisParameter, e);
+        }
+
+        final List<String> services = new ArrayList<>();
+        for (String className : (classNames == null ? DEFAULT_SERVICES : classNames).split(",")) {
+            if (!className.trim().isEmpty()) {
+                services.add(className.trim());
+                Warmup.expect(className.trim());
+            }
+        }
+        if (services.isEmpty()) {
+            return;
+        }
+
+        Thread warmer = new Thread(() -> {
+            for (String className : services) {
+                try {
+                    log(Warmup.run((AbstractLingpipeService) Services.get(className), maxMillis).toString());
+                } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+                    Warmup.fail(className);
+                    log("Unable to warm up " + className, e);
+                }
+            }
+        }, "lingpipe-warmup");
+        warmer.setDaemon(true);
+        warmer.start();
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, Warmup.State> state : Warmup.states().entrySet()) {
+            out.append(state.getKey()).append(' ').append(state.getValue()).append('\n');
+        }
+        if (Warmup.isReady()) {
+            response.setStatus(HttpServletResponse.SC_OK);
+        } else {
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            response.setHeader("Retry-After", "5");
+        }
+        response.setContentType("text/plain");
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.getWriter().write(out.length() == 0 ? "ready\n" : out.toString());
+    }
+}
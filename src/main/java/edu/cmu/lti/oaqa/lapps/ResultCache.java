@@ -0,0 +1,244 @@
+/*
+ * Copyright 2014 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package edu.cmu.lti.oaqa.lapps;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Content-addressed cache of serialized service results.
+ * <p>
+ * The memory tier is a least-recently-used map bounded by the total number of cached
+ * characters. When a disk directory is configured, entries evicted from memory are
+ * written there, one file per key, and promoted back to memory on their next hit; the
+ * directory is trimmed, oldest files first, when it grows past its own bound.
+ */
+public class ResultCache {
+
+    private final long maxChars;
+
+    private final File directory;
+
+    private final long maxDiskBytes;
+
+    private final LinkedHashMap<String, String> entries = new LinkedHashMap<>(256, 0.75f, true);
+
+    private long chars = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong diskHits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final AtomicLong diskBytes = new AtomicLong();
+
+    /**
+     * Creates a memory-only cache holding at most {@code maxChars} characters of results.
+     */
+    public ResultCache(long maxChars) {
+        this(maxChars, null, 0L);
+    }
+
+    /**
+     * Creates a cache that spills entries evicted from memory to {@code directory}, which
+     * is kept under {@code maxDiskBytes}.
+     */
+    public ResultCache(long maxChars, File directory, long maxDiskBytes) {
+        this.maxChars = maxChars;
+        this.directory = directory;
+        this.maxDiskBytes = maxDiskBytes;
+        if (directory != null) {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IllegalArgumentException("Unable to create cache directory " + directory);
+            }
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    diskBytes.addAndGet(file.length());
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the SHA-256 hex digest of the parts, used as a cache key.
+     */
+    public static String key(String... parts) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String part : parts) {
+                digest.update(part.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            StringBuilder hex = new StringBuilder(64);
+            for (byte b : digest.digest()) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Returns the cached result for the key, or {@code null} on a miss.
+     */
+    public String get(String key) {
+        String value;
+        synchronized (this) {
+            value = entries.get(key);
+        }
+        if (value != null) {
+            hits.incrementAndGet();
+            return value;
+        }
+        value = readFromDisk(key);
+        if (value != null) {
+            diskHits.incrementAndGet();
+            put(key, value);
+            return value;
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    public void put(String key, String value) {
+        if (value.length() > maxChars) {
+            return;
+        }
+        Map<String, String> evicted = new LinkedHashMap<>();
+        synchronized (this) {
+            String previous = entries.put(key, value);
+            chars += value.length() - (previous == null ? 0 : previous.length());
+            Iterator<Map.Entry<String, String>> it = entries.entrySet().iterator();
+            while (chars > maxChars && it.hasNext()) {
+                Map.Entry<String, String> eldest = it.next();
+                it.remove();
+                chars -= eldest.getValue().length();
+                evicted.put(eldest.getKey(), eldest.getValue());
+            }
+        }
+        evictions.addAndGet(evicted.size());
+        for (Map.Entry<String, String> entry : evicted.entrySet()) {
+            writeToDisk(entry.getKey(), entry.getValue());
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Number of hits served from the disk tier, which are not counted in {@link #getHits()}.
+     */
+    public long getDiskHits() {
+        return diskHits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long chars() {
+        return chars;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ResultCache[%d entries, %d chars, %d hits, %d disk hits, %d misses, %d evictions]",
+                size(), chars(), getHits(), getDiskHits(), getMisses(), getEvictions());
+    }
+
+    private File file(String key) {
+        return new File(directory, key + ".json");
+    }
+
+    private String readFromDisk(String key) {
+        if (directory == null) {
+            return null;
+        }
+        try {
+            return new String(Files.readAllBytes(file(key).toPath()), StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            // A broken disk entry is a miss; it is overwritten on the next spill.
+            return null;
+        }
+    }
+
+    private void writeToDisk(String key, String value) {
+        if (directory == null || maxDiskBytes <= 0) {
+            return;
+        }
+        File file = file(key);
+        File tmp = new File(directory, key + ".tmp" + Thread.currentThread().getId());
+        try {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            Files.write(tmp.toPath(), bytes);
+            long replaced = file.length();
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            if (diskBytes.addAndGet(bytes.length - replaced) > maxDiskBytes) {
+                trimDisk();
+            }
+        } catch (IOException e) {
+            // The disk tier is best effort; the entry is simply not kept.
+            tmp.delete();
+        }
+    }
+
+    private synchronized void trimDisk() {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(".json"));
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            if (diskBytes.get() <= maxDiskBytes * 3 / 4) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                diskBytes.addAndGet(-length);
+            }
+        }
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2014 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package edu.cmu.lti.oaqa.lapps;
+
+import com.aliasi.chunk.Chunk;
+import com.aliasi.chunk.ChunkFactory;
+import com.aliasi.chunk.Chunking;
+import com.aliasi.chunk.ChunkingImpl;
+import com.aliasi.sentences.HeuristicSentenceModel;
+import com.aliasi.sentences.SentenceChunker;
+import com.aliasi.tokenizer.TokenizerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Finds the same sentences as a {@link SentenceChunker} over a {@link HeuristicSentenceModel}
+ * without tokenizing the whole text.
+ * <p>
+ * A heuristic model only puts boundaries on its possible stop tokens, and decides each one
+ * from the tokens and whitespace right around it. So the text is scanned once with a
+ * character-class table for the characters stop tokens are made of, and the model runs,
+ * unchanged, only on small windows of whole words around those characters: the tokens,
+ * whitespace and rules it sees there are the ones it would see in the whole text. Windows
+ * that touch are merged. The sentences are then rebuilt as the chunker builds them: each
+ * one runs from the first token after the previous boundary to the end of its boundary
+ * token, and text after the last boundary is not a sentence.
+ * <p>
+ * A model that balances parentheses decides from the whole text seen so far, so for such a
+ * model the scanner falls back to the chunker.
+ */
+public final class SentenceScanner {
+
+    private static final byte OTHER = 0;
+
+    private static final byte WHITESPACE = 1;
+
+    private static final byte STOP = 2;
+
+    /**
+     * Words of context kept on either side of a stop character.
+     */
+    static final int MARGIN_WORDS = 2;
+
+    private final TokenizerFactory tokenizerFactory;
+
+    private final HeuristicSentenceModel model;
+
+    private final SentenceChunker fallback;
+
+    private final byte[] classes = new byte[Character.MAX_VALUE + 1];
+
+    public SentenceScanner(TokenizerFactory tokenizerFactory, HeuristicSentenceModel model) {
+        this.tokenizerFactory = tokenizerFactory;
+        this.model = model;
+        this.fallback = model.balanceParens() ? new SentenceChunker(tokenizerFactory, model) : null;
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+            if (Character.isWhitespace(c)) {
+                classes[c] = WHITESPACE;
+            }
+        }
+        for (String stop : model.possibleStops()) {
+            for (int i = 0; i < stop.length(); i++) {
+                classes[stop.charAt(i)] = STOP;
+            }
+        }
+    }
+
+    /**
+     * Returns the sentences in {@code cs[start, end)}, with offsets relative to {@code start}
+     * as {@link SentenceChunker#chunk(char[], int, int)} returns them.
+     */
+    public Chunking chunk(char[] cs, int start, int end) {
+        if (fallback != null) {
+            return fallback.chunk(cs, start, end);
+        }
+        ChunkingImpl chunking = new ChunkingImpl(cs, start, end);
+        int sentenceStart = start;
+        for (int boundary : boundaryEnds(cs, start, end)) {
+            while (classes[cs[sentenceStart]] == WHITESPACE) {
+                sentenceStart++;
+            }
+            chunking.add(ChunkFactory.createChunk(sentenceStart - start, boundary - start,
+                    SentenceChunker.SENTENCE_CHUNK_TYPE));
+            sentenceStart = boundary;
+        }
+        return chunking;
+    }
+
+    /**
+     * Returns the sorted end offsets, in {@code cs}, of the boundary tokens in
+     * {@code cs[start, end)}.
+     */
+    public int[] sentenceEnds(char[] cs, int start, int end) {
+        if (fallback != null) {
+            Set<Chunk> sentences = fallback.chunk(cs, start, end).chunkSet();
+            int[] ends = new int[sentences.size()];
+            int n = 0;
+            for (Chunk sentence : sentences) {
+                ends[n++] = start + sentence.end();
+            }
+            Arrays.sort(ends);
+            return ends;
+        }
+        return boundaryEnds(cs, start, end);
+    }
+
+    private int[] boundaryEnds(char[] cs, int start, int end) {
+        int last = end;
+        while (last > start && classes[cs[last - 1]] == WHITESPACE) {
+            last--;
+        }
+        Boundaries boundaries = new Boundaries();
+        int windowStart = -1;
+        int windowEnd = -1;
+        int p = start;
+        while (p < last) {
+            // The last token is a candidate too, as the model may force a final stop.
+            if (classes[cs[p]] != STOP && p != last - 1) {
+                p++;
+                continue;
+            }
+            int wordStart = p;
+            while (wordStart > start && classes[cs[wordStart - 1]] != WHITESPACE) {
+                wordStart--;
+            }
+            int wordEnd = p;
+            while (wordEnd < end && classes[cs[wordEnd]] != WHITESPACE) {
+                wordEnd++;
+            }
+            int from = wordsBefore(cs, start, wordStart);
+            int to = wordsAfter(cs, wordEnd, end);
+            if (windowEnd >= 0 && from <= windowEnd) {
+                windowEnd = Math.max(windowEnd, to);
+            } else {
+                if (windowEnd >= 0) {
+                    scan(cs, windowStart, windowEnd, start, end, boundaries);
+                }
+                windowStart = from;
+                windowEnd = to;
+            }
+            p = wordEnd;
+        }
+        if (windowEnd >= 0) {
+            scan(cs, windowStart, windowEnd, start, end, boundaries);
+        }
+        return boundaries.toArray();
+    }
+
+    /**
+     * Returns the start of the {@link #MARGIN_WORDS}th word before {@code wordStart}.
+     */
+    private int wordsBefore(char[] cs, int start, int wordStart) {
+        int p = wordStart;
+        for (int words = 0; words < MARGIN_WORDS && p > start; words++) {
+            while (p > start && classes[cs[p - 1]] == WHITESPACE) {
+                p--;
+            }
+            while (p > start && classes[cs[p - 1]] != WHITESPACE) {
+                p--;
+            }
+        }
+        return p;
+    }
+
+    /**
+     * Returns the end of the {@link #MARGIN_WORDS}th word after {@code wordEnd}.
+     */
+    private int wordsAfter(char[] cs, int wordEnd, int end) {
+        int p = wordEnd;
+        for (int words = 0; words < MARGIN_WORDS && p < end; words++) {
+            while (p < end && classes[cs[p]] == WHITESPACE) {
+                p++;
+            }
+            while (p < end && classes[cs[p]] != WHITESPACE) {
+                p++;
+            }
+        }
+        return p;
+    }
+
+    /**
+     * Runs the model on the window {@code cs[from, to)} and adds the ends of its boundary
+     * tokens. Windows start and end on whole words, so no whitespace is cut off. The model
+     * takes the window edges for the text edges, so the first and last token of a window
+     * are only decided here where the window reaches the start or end of the text; one
+     * that may be a boundary elsewhere lies inside a window of its own.
+     */
+    private void scan(char[] cs, int from, int to, int start, int end, Boundaries boundaries) {
+        List<String> tokens = new ArrayList<>();
+        List<String> whitespaces = new ArrayList<>();
+        tokenizerFactory.tokenizer(cs, from, to - from).tokenize(tokens, whitespaces);
+        if (tokens.isEmpty()) {
+            return;
+        }
+        int[] indices = model.boundaryIndices(tokens.toArray(new String[tokens.size()]),
+                whitespaces.toArray(new String[whitespaces.size()]));
+        if (indices.length == 0) {
+            return;
+        }
+
+        // Token ends follow from the token and whitespace lengths, which cover the window.
+        int[] tokenEnds = new int[tokens.size()];
+        int position = from + whitespaces.get(0).length();
+        for (int i = 0; i < tokens.size(); i++) {
+            position += tokens.get(i).length();
+            tokenEnds[i] = position;
+            position += whitespaces.get(i + 1).length();
+        }
+        int lastToken = tokens.size() - 1;
+        for (int index : indices) {
+            // Only the tokens with their full context in the window are decided here.
+            if ((index > 0 || from == start) && (index < lastToken || to == end)) {
+                boundaries.add(tokenEnds[index]);
+            }
+        }
+    }
+
+    /**
+     * Growable, sorted, duplicate-free list of boundary offsets.
+     */
+    private static final class Boundaries {
+
+        private int[] ends = new int[16];
+
+        private int size;
+
+        void add(int end) {
+            if (size > 0 && ends[size - 1] >= end) {
+                return;
+            }
+            if (size == ends.length) {
+                int[] grown = new int[2 * size];
+                System.arraycopy(ends, 0, grown, 0, size);
+                ends = grown;
+            }
+            ends[size++] = end;
+        }
+
+        int[] toArray() {
+            int[] result = new int[size];
+            System.arraycopy(ends, 0, result, 0, size);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,390 @@
+/*
+ * Copyright 2014 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package edu.cmu.lti.oaqa.lapps;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Per-service request counters and latency histograms, one per {@link Stage} of
+ * {@link AbstractLingpipeService#execute(String)}.
+ * <p>
+ * There is one instance per service class, shared by all its instances and registered
+ * with the platform MBean server as {@code edu.cmu.lti.oaqa.lapps:type=ServiceMetrics,name=<class>}.
+ * Recording costs two {@link System#nanoTime()} calls per stage and a few atomic
+ * increments, so it is always on.
+ */
+public final class ServiceMetrics implements ServiceMetricsMXBean {
+
+    static final String DOMAIN = "edu.cmu.lti.oaqa.lapps";
+
+    private static final ConcurrentMap<String, ServiceMetrics> METRICS = new ConcurrentHashMap<>();
+
+    private static final Set<ObjectName> REGISTERED = ConcurrentHashMap.newKeySet();
+
+    private static final double[] PERCENTILES = {50.0, 90.0, 99.0, 99.9};
+
+    /**
+     * The parts of a request that are timed separately.
+     */
+    public enum Stage {
+        /** Reading the input JSON. */
+        PARSE,
+        /** Building the {@code Container} from the parsed payload. */
+        CONTAINER,
+        /** Running the Lingpipe model and building the new view. */
+        INFERENCE,
+        /** Writing the result JSON; on the streaming path copying the input around the new view. */
+        SERIALIZE,
+        /** The whole request. */
+        TOTAL;
+
+        String label() {
+            return name().toLowerCase();
+        }
+    }
+
+    private final String service;
+
+    private final Map<Stage, LatencyHistogram> latencies = new EnumMap<>(Stage.class);
+
+    private final LongAdder requests = new LongAdder();
+
+    private final LongAdder errors = new LongAdder();
+
+    private final LongAdder chars = new LongAdder();
+
+    private final LongAdder annotations = new LongAdder();
+
+    private final ConcurrentMap<String, DoubleSupplier> gauges = new ConcurrentHashMap<>();
+
+    private ServiceMetrics(String service) {
+        this.service = service;
+        for (Stage stage : Stage.values()) {
+            latencies.put(stage, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * Returns the metrics of the service class, registering them on first use.
+     */
+    public static ServiceMetrics of(Class<?> service) {
+        ServiceMetrics metrics = METRICS.get(service.getName());
+        if (metrics == null) {
+            ServiceMetrics created = new ServiceMetrics(service.getSimpleName());
+            metrics = METRICS.putIfAbsent(service.getName(), created);
+            if (metrics == null) {
+                metrics = created;
+                register("ServiceMetrics", created.service, created);
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * Returns metrics for the service class that are neither registered nor reported, for
+     * requests that must not count as traffic, such as a warm-up.
+     */
+    static ServiceMetrics detached(Class<?> service) {
+        return new ServiceMetrics(service.getSimpleName());
+    }
+
+    /**
+     * Returns the metrics of every service that has been used.
+     */
+    public static Collection<ServiceMetrics> all() {
+        return new ArrayList<>(METRICS.values());
+    }
+
+    /**
+     * Registers an MBean under {@link #DOMAIN}, replacing one left under the same name,
+     * e.g. by an earlier deployment of the web application. Failure to register only
+     * costs the JMX view.
+     */
+    static void register(String type, String name, Object mbean) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(mbean, objectName);
+            REGISTERED.add(objectName);
+        } catch (JMException | SecurityException e) {
+            // Metrics are still recorded and served by MetricsServlet.
+        }
+    }
+
+    /**
+     * Unregisters every MBean registered by {@link #register}, so that the platform MBean
+     * server does not keep the web application's classes after it is stopped.
+     *
+     * @see MetricsListener
+     */
+    static void unregisterAll() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName objectName : REGISTERED) {
+            try {
+                if (server.isRegistered(objectName)) {
+                    server.unregisterMBean(objectName);
+                }
+            } catch (JMException | SecurityException e) {
+                // Nothing more can be done at shutdown.
+            }
+            REGISTERED.remove(objectName);
+        }
+    }
+
+    public String getService() {
+        return service;
+    }
+
+    public LatencyHistogram getLatency(Stage stage) {
+        return latencies.get(stage);
+    }
+
+    void record(Stage stage, long nanos) {
+        latencies.get(stage).record(nanos);
+    }
+
+    /**
+     * Records the time from {@code startTime} to now for the stage and returns now.
+     */
+    long lap(Stage stage, long startTime) {
+        long now = System.nanoTime();
+        latencies.get(stage).record(now - startTime);
+        return now;
+    }
+
+    /**
+     * Records a finished request over {@code chars} characters of text that produced
+     * {@code annotations} annotations.
+     */
+    void recordRequest(long nanos, int chars, int annotations) {
+        requests.increment();
+        this.chars.add(chars);
+        this.annotations.add(annotations);
+        latencies.get(Stage.TOTAL).record(nanos);
+    }
+
+    void recordError() {
+        errors.increment();
+    }
+
+    /**
+     * Publishes a value the service computes on demand, such as a cache hit rate, under
+     * {@code name}, replacing any earlier gauge of that name.
+     */
+    public void gauge(String name, DoubleSupplier value) {
+        gauges.put(name, value);
+    }
+
+    @Override
+    public Map<String, Double> getGauges() {
+        Map<String, Double> values = new TreeMap<>();
+        for (Map.Entry<String, DoubleSupplier> gauge : gauges.entrySet()) {
+            values.put(gauge.getKey(), gauge.getValue().getAsDouble());
+        }
+        return values;
+    }
+
+    @Override
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    @Override
+    public long getChars() {
+        return chars.sum();
+    }
+
+    @Override
+    public long getAnnotations() {
+        return annotations.sum();
+    }
+
+    /**
+     * Characters of text processed per second spent in requests.
+     */
+    @Override
+    public double getCharsPerSecond() {
+        return perSecond(chars.sum());
+    }
+
+    /**
+     * Annotations produced per second spent in requests: tokens for the tokenizer and the
+     * tagger, sentences and entities for the other services.
+     */
+    @Override
+    public double getAnnotationsPerSecond() {
+        return perSecond(annotations.sum());
+    }
+
+    private double perSecond(long count) {
+        long nanos = latencies.get(Stage.TOTAL).getSum();
+        return nanos == 0 ? 0.0 : count * 1e9 / nanos;
+    }
+
+    @Override
+    public Map<String, Double> getLatencyMicros() {
+        Map<String, Double> micros = new LinkedHashMap<>();
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = latencies.get(stage);
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+            micros.put(stage.label() + ".mean", histogram.getMean() / 1000.0);
+            for (double percentile : PERCENTILES) {
+                micros.put(stage.label() + "." + percentileLabel(percentile),
+                        histogram.getPercentile(percentile) / 1000.0);
+            }
+            micros.put(stage.label() + ".max", histogram.getMax() / 1000.0);
+        }
+        return micros;
+    }
+
+    /**
+     * Starts over with empty counters and histograms.
+     */
+    @Override
+    public void reset() {
+        requests.reset();
+        errors.reset();
+        chars.reset();
+        annotations.reset();
+        for (LatencyHistogram histogram : latencies.values()) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * Appends the metrics of the services in the Prometheus text exposition format, one
+     * metric family at a time.
+     */
+    static void writeText(Collection<ServiceMetrics> all, StringBuilder out) {
+        counter(out, all, "lingpipe_requests_total", ServiceMetrics::getRequests);
+        counter(out, all, "lingpipe_errors_total", ServiceMetrics::getErrors);
+        counter(out, all, "lingpipe_chars_total", ServiceMetrics::getChars);
+        counter(out, all, "lingpipe_annotations_total", ServiceMetrics::getAnnotations);
+        type(out, "lingpipe_chars_per_second", "gauge");
+        for (ServiceMetrics metrics : all) {
+            line(out, "lingpipe_chars_per_second", metrics.labels(), metrics.getCharsPerSecond());
+        }
+        type(out, "lingpipe_annotations_per_second", "gauge");
+        for (ServiceMetrics metrics : all) {
+            line(out, "lingpipe_annotations_per_second", metrics.labels(), metrics.getAnnotationsPerSecond());
+        }
+
+        Set<String> gauges = new TreeSet<>();
+        for (ServiceMetrics metrics : all) {
+            gauges.addAll(metrics.gauges.keySet());
+        }
+        for (String gauge : gauges) {
+            type(out, "lingpipe_" + gauge, "gauge");
+            for (ServiceMetrics metrics : all) {
+                DoubleSupplier value = metrics.gauges.get(gauge);
+                if (value != null) {
+                    line(out, "lingpipe_" + gauge, metrics.labels(), value.getAsDouble());
+                }
+            }
+        }
+
+        type(out, "lingpipe_latency_seconds", "summary");
+        for (ServiceMetrics metrics : all) {
+            for (Stage stage : Stage.values()) {
+                LatencyHistogram histogram = metrics.latencies.get(stage);
+                String stageLabels = metrics.labels() + "," + label("stage", stage.label());
+                for (double percentile : PERCENTILES) {
+                    line(out, "lingpipe_latency_seconds",
+                            stageLabels + "," + label("quantile", String.valueOf(percentile / 100.0)),
+                            histogram.getPercentile(percentile) / 1e9);
+                }
+                line(out, "lingpipe_latency_seconds_sum", stageLabels, histogram.getSum() / 1e9);
+                line(out, "lingpipe_latency_seconds_count", stageLabels, histogram.getCount());
+            }
+        }
+    }
+
+    private static void counter(StringBuilder out, Collection<ServiceMetrics> all, String name,
+                                ToLongFunction<ServiceMetrics> value) {
+        type(out, name, "counter");
+        for (ServiceMetrics metrics : all) {
+            line(out, name, metrics.labels(), value.applyAsLong(metrics));
+        }
+    }
+
+    private String labels() {
+        return label("service", service);
+    }
+
+    /**
+     * Writes the {@code # TYPE} line that has to precede the samples of a metric family.
+     */
+    static void type(StringBuilder out, String name, String type) {
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    static void line(StringBuilder out, String name, String labels, Object value) {
+        out.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+    }
+
+    /**
+     * Returns {@code name="value"} with the value escaped for the exposition format.
+     */
+    static String label(String name, String value) {
+        StringBuilder label = new StringBuilder(name.length() + value.length() + 3);
+        label.append(name).append("=\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                label.append('\\').append(c);
+            } else if (c == '\n') {
+                label.append("\\n");
+            } else {
+                label.append(c);
+            }
+        }
+        return label.append('"').toString();
+    }
+
+    private static String percentileLabel(double percentile) {
+        return percentile == Math.rint(percentile)
+                ? "p" + (int) percentile
+                : "p" + String.valueOf(percentile).replace(".", "");
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2014 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package edu.cmu.lti.oaqa.lapps;
+
+import java.util.Map;
+
+/**
+ * JMX view of the {@link ServiceMetrics} of one service.
+ */
+public interface ServiceMetricsMXBean {
+
+    long getRequests();
+
+    long getErrors();
+
+    long getChars();
+
+    long getAnnotations();
+
+    double getCharsPerSecond();
+
+    double getAnnotationsPerSecond();
+
+    /**
+     * Latency percentiles in microseconds, keyed {@code <stage>.<statistic>}, e.g.
+     * {@code inference.p99}.
+     */
+    Map<String, Double> getLatencyMicros();
+
+    /**
+     * Service-specific values, such as cache hit rates, keyed by name.
+     */
+    Map<String, Double> getGauges();
+
+    void reset();
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2014 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package edu.cmu.lti.oaqa.lapps;
+
+import org.lappsgrid.api.ProcessingService;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The service instances that answer requests, one per service class, shared by the
+ * service container and the servlets of this application.
+ * <p>
+ * The Spring definitions in {@code WEB-INF/serviceimpl} obtain their service from
+ * {@link #get(String)} and configure it with their properties, so {@link AsyncServiceServlet}
+ * and the warm-up in {@link ReadinessServlet} use the configured instance. The properties
+ * are applied when the service container reads the definitions; a servlet that asks for
+ * a service before that sees its default settings until then.
+ */
+public final class Services {
+
+    private static final Map<String, ProcessingService> SERVICES = new HashMap<>();
+
+    private Services() {
+    }
+
+    /**
+     * Returns the instance of the service class {@code className}, creating it with its
+     * no-argument constructor on the first request.
+     */
+    public static synchronized ProcessingService get(String className) throws ReflectiveOperationException {
+        ProcessingService service = SERVICES.get(className);
+        if (service == null) {
+            service = (ProcessingService) Class.forName(className).getDeclaredConstructor().newInstance();
+            SERVICES.put(className, service);
+        }
+        return service;
+    }
+}
@@ -0,0 +1,573 @@
+/*
+ * Copyright 2014 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package edu.cmu.lti.oaqa.lapps;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.lappsgrid.serialization.DataContainer;
+import org.lappsgrid.serialization.Serializer;
+import org.lappsgrid.serialization.lif.Container;
+import org.lappsgrid.serialization.lif.View;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.lappsgrid.discriminator.Discriminators.Uri;
+
+/**
+ * Appends a view to a LIF document, or turns a plain-text document into LIF with one
+ * view, without building the {@code Data}/{@code Container} object tree for it.
+ * <p>
+ * The input is read twice with a streaming JSON parser: the first pass picks up the
+ * discriminator, the text and the ids of the existing views, and on request the sentences
+ * of the latest {@link LingpipeSentenceSpliter} view; the second copies every token to
+ * the output and inserts the new view at the end of the {@code views} array.
+ * The existing views are never turned into objects, so the cost depends on the size of
+ * the new view rather than on the size of the document.
+ */
+final class StreamingLif {
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    private static final String TEXT_MARK = "\u0000text\u0000";
+
+    /**
+     * The LIF document the object model produces for a text and one new view, with a
+     * marker in place of the text. {@link #textToLif} copies it with the real text and view.
+     */
+    private static final String TEXT_TEMPLATE;
+
+    static {
+        Container template = new Container();
+        template.setText(TEXT_MARK);
+        template.newView();
+        TEXT_TEMPLATE = new DataContainer(template).asJson();
+    }
+
+    /**
+     * Output buffers above this capacity are not kept for the next request.
+     */
+    private static final int MAX_REUSED_BUFFER = 1 << 20;
+
+    private static final ThreadLocal<BuilderWriter> OUTPUT = ThreadLocal.withInitial(BuilderWriter::new);
+
+    /**
+     * Writes the new view for a document.
+     */
+    interface ViewWriter {
+
+        /**
+         * Writes one view as a JSON value to {@code out}.
+         *
+         * @param scratch a container holding the document text and metadata and one empty
+         *                placeholder view per existing view, so that {@code scratch.newView()}
+         *                yields the id the new view gets in the document; when sentences were
+         *                requested, the placeholder of the latest {@link LingpipeSentenceSpliter}
+         *                view holds its sentences
+         */
+        void write(Container scratch, JsonGenerator out) throws IOException;
+
+        /**
+         * Called once the input has been read, before the output is written.
+         */
+        default void inputRead() {
+        }
+    }
+
+    /**
+     * Writes the annotations of a view as a sequence of JSON objects.
+     */
+    interface AnnotationWriter {
+
+        void write(JsonGenerator out) throws IOException;
+    }
+
+    private StreamingLif() {
+    }
+
+    /**
+     * Returns the input with one more view, or {@code null} if the input is not LIF or
+     * has no text, in which case the caller should fall back to the object model.
+     *
+     * @throws IOException if the input is not well-formed JSON
+     */
+    static String appendView(String input, ViewWriter writer) throws IOException {
+        return appendView(input, writer, false);
+    }
+
+    /**
+     * {@link #appendView(String, ViewWriter)}, also reading the sentences of the latest
+     * {@link LingpipeSentenceSpliter} view into the scratch container when
+     * {@code sentences} is set.
+     */
+    static String appendView(String input, ViewWriter writer, boolean sentences) throws IOException {
+        // Pass #1: Find the discriminator, the text, the metadata and the view ids.
+        Scan scan = scan(input, sentences);
+        if (!Uri.LAPPS.equals(scan.discriminator) || scan.text == null || scan.text.isEmpty()) {
+            return null;
+        }
+        Container scratch = new Container();
+        scratch.setText(scan.text);
+        if (scan.metadata != null) {
+            scratch.setMetadata(Serializer.parse(scan.metadata, HashMap.class));
+        }
+        for (int i = 0; i < scan.views; i++) {
+            View view = scratch.newView();
+            if (i == scan.sentenceView) {
+                view.addContains(Uri.SENTENCE, LingpipeSentenceSpliter.class.getName(), scan.sentenceTagSet);
+                for (int k = 0; k < scan.sentences.size(); k += 2) {
+                    view.newAnnotation("s" + k / 2, Uri.SENTENCE, scan.sentences.get(k), scan.sentences.get(k + 1));
+                }
+            }
+        }
+        // The placeholders only count the views, their ids are generated. The new view gets
+        // the next generated id, so pad with placeholders until that id is not in the input.
+        while (true) {
+            View next = scratch.newView();
+            if (!scan.viewIds.contains(next.getId())) {
+                scratch.getViews().remove(next);
+                break;
+            }
+        }
+
+        writer.inputRead();
+
+        // Pass #2: Copy the document and append the new view.
+        StringWriter output = new StringWriter(input.length() + 1024);
+        try (JsonParser parser = FACTORY.createParser(input);
+             JsonGenerator generator = FACTORY.createGenerator(output)) {
+            expect(parser.nextToken(), JsonToken.START_OBJECT);
+            generator.writeStartObject();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                parser.nextToken();
+                generator.writeFieldName(name);
+                if ("payload".equals(name)) {
+                    copyPayload(parser, generator, scratch, writer);
+                } else {
+                    generator.copyCurrentStructure(parser);
+                }
+            }
+            generator.writeEndObject();
+        }
+        return output.toString();
+    }
+
+    /**
+     * Returns the top-level discriminator of a {@code Data} document, or {@code null} if it
+     * has none. Reading stops at the discriminator, which comes first in practice.
+     *
+     * @throws IOException if the document is not well-formed JSON
+     */
+    static String discriminator(String json) throws IOException {
+        try (JsonParser parser = FACTORY.createParser(json)) {
+            expect(parser.nextToken(), JsonToken.START_OBJECT);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if ("discriminator".equals(name) && value == JsonToken.VALUE_STRING) {
+                    return parser.getText();
+                }
+                parser.skipChildren();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the text of a {@code Uri.TEXT} or LIF {@code Data} document, or {@code null}
+     * if it is neither or has no text. The views are skipped unread.
+     *
+     * @throws IOException if the document is not well-formed JSON
+     */
+    static String text(String json) throws IOException {
+        String discriminator = null;
+        String text = null;
+        try (JsonParser parser = FACTORY.createParser(json)) {
+            expect(parser.nextToken(), JsonToken.START_OBJECT);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if ("discriminator".equals(name) && value == JsonToken.VALUE_STRING) {
+                    discriminator = parser.getText();
+                } else if ("payload".equals(name) && value == JsonToken.VALUE_STRING) {
+                    text = parser.getText();
+                } else if ("payload".equals(name) && value == JsonToken.START_OBJECT) {
+                    Scan scan = new Scan();
+                    scanPayload(parser, scan);
+                    text = scan.text;
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return Uri.TEXT.equals(discriminator) || Uri.LAPPS.equals(discriminator) ? text : null;
+    }
+
+    /**
+     * Returns the LIF document holding the text of a {@code Uri.TEXT} input and one new
+     * view, or {@code null} if the input is not plain text or the text is empty.
+     * <p>
+     * The discriminator comes first in the input in practice, so anything but plain text
+     * is recognised after reading a few bytes. The output is written into a per-thread
+     * buffer from a template, without a {@code Data} or {@code Container} for the document.
+     *
+     * @throws IOException if the input is not well-formed JSON
+     */
+    static String textToLif(String input, ViewWriter writer) throws IOException {
+        // Step #1: Find the discriminator, and the text if it is plain text.
+        String discriminator = null;
+        String text = null;
+        try (JsonParser parser = FACTORY.createParser(input)) {
+            expect(parser.nextToken(), JsonToken.START_OBJECT);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if ("discriminator".equals(name) && value == JsonToken.VALUE_STRING) {
+                    discriminator = parser.getText();
+                    if (!Uri.TEXT.equals(discriminator)) {
+                        return null;
+                    }
+                } else if ("payload".equals(name) && value == JsonToken.VALUE_STRING) {
+                    text = parser.getText();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        if (!Uri.TEXT.equals(discriminator) || text == null || text.isEmpty()) {
+            return null;
+        }
+        Container scratch = new Container();
+        scratch.setText(text);
+        writer.inputRead();
+
+        // Step #2: Copy the template with the text and the new view.
+        BuilderWriter output = OUTPUT.get();
+        output.reset(input.length() + 1024);
+        try (JsonParser parser = FACTORY.createParser(TEXT_TEMPLATE);
+             JsonGenerator generator = FACTORY.createGenerator(output)) {
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                if (token == JsonToken.VALUE_STRING && TEXT_MARK.equals(parser.getText())) {
+                    generator.writeString(text);
+                } else if (token == JsonToken.FIELD_NAME && "views".equals(parser.getCurrentName())) {
+                    generator.writeFieldName("views");
+                    expect(parser.nextToken(), JsonToken.START_ARRAY);
+                    parser.skipChildren();
+                    generator.writeStartArray();
+                    writer.write(scratch, generator);
+                    generator.writeEndArray();
+                } else {
+                    generator.copyCurrentEvent(parser);
+                }
+            }
+        }
+        return output.release();
+    }
+
+    /**
+     * Writes the view as the LIF serializer would, except that its {@code annotations}
+     * come from {@code annotations} instead of from the view itself.
+     */
+    static void writeView(View view, JsonGenerator out, AnnotationWriter annotations) throws IOException {
+        try (JsonParser parser = FACTORY.createParser(Serializer.toJson(view))) {
+            expect(parser.nextToken(), JsonToken.START_OBJECT);
+            out.writeStartObject();
+            boolean written = false;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                parser.nextToken();
+                out.writeFieldName(name);
+                if ("annotations".equals(name)) {
+                    parser.skipChildren();
+                    out.writeStartArray();
+                    annotations.write(out);
+                    out.writeEndArray();
+                    written = true;
+                } else {
+                    out.copyCurrentStructure(parser);
+                }
+            }
+            if (!written) {
+                out.writeFieldName("annotations");
+                out.writeStartArray();
+                annotations.write(out);
+                out.writeEndArray();
+            }
+            out.writeEndObject();
+        }
+    }
+
+    /**
+     * Splits a JSON array into the JSON text of its elements.
+     *
+     * @throws IOException if the input is not a well-formed JSON array
+     */
+    static List<String> splitArray(String input) throws IOException {
+        List<String> elements = new ArrayList<>();
+        try (JsonParser parser = FACTORY.createParser(input)) {
+            expect(parser.nextToken(), JsonToken.START_ARRAY);
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                StringWriter element = new StringWriter();
+                try (JsonGenerator generator = FACTORY.createGenerator(element)) {
+                    generator.copyCurrentStructure(parser);
+                }
+                elements.add(element.toString());
+            }
+        }
+        return elements;
+    }
+
+    private static void copyPayload(JsonParser parser, JsonGenerator generator, Container scratch,
+                                    ViewWriter writer) throws IOException {
+        expect(parser.getCurrentToken(), JsonToken.START_OBJECT);
+        generator.writeStartObject();
+        boolean appended = false;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            generator.writeFieldName(name);
+            if ("views".equals(name) && value == JsonToken.START_ARRAY) {
+                generator.writeStartArray();
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    generator.copyCurrentStructure(parser);
+                }
+                writer.write(scratch, generator);
+                generator.writeEndArray();
+                appended = true;
+            } else {
+                generator.copyCurrentStructure(parser);
+            }
+        }
+        if (!appended) {
+            generator.writeFieldName("views");
+            generator.writeStartArray();
+            writer.write(scratch, generator);
+            generator.writeEndArray();
+        }
+        generator.writeEndObject();
+    }
+
+    private static Scan scan(String input, boolean sentences) throws IOException {
+        Scan scan = new Scan();
+        scan.readSentences = sentences;
+        try (JsonParser parser = FACTORY.createParser(input)) {
+            expect(parser.nextToken(), JsonToken.START_OBJECT);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if ("discriminator".equals(name) && value == JsonToken.VALUE_STRING) {
+                    scan.discriminator = parser.getText();
+                } else if ("payload".equals(name) && value == JsonToken.START_OBJECT) {
+                    scanPayload(parser, scan);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return scan;
+    }
+
+    private static void scanPayload(JsonParser parser, Scan scan) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if ("text".equals(name) && value == JsonToken.VALUE_STRING) {
+                scan.text = parser.getText();
+            } else if ("text".equals(name) && value == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+                    if (parser.nextToken() == JsonToken.VALUE_STRING && "@value".equals(field)) {
+                        scan.text = parser.getText();
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else if ("metadata".equals(name) && value == JsonToken.START_OBJECT) {
+                StringWriter metadata = new StringWriter();
+                try (JsonGenerator generator = FACTORY.createGenerator(metadata)) {
+                    generator.copyCurrentStructure(parser);
+                }
+                scan.metadata = metadata.toString();
+            } else if ("views".equals(name) && value == JsonToken.START_ARRAY) {
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    if (parser.getCurrentToken() == JsonToken.START_OBJECT) {
+                        scanView(parser, scan);
+                    } else {
+                        parser.skipChildren();
+                    }
+                    scan.views++;
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * Reads the id of a view, and when asked for sentences, keeps its sentences if
+     * {@link LingpipeSentenceSpliter} made them.
+     */
+    private static void scanView(JsonParser parser, Scan scan) throws IOException {
+        String producer = null;
+        String tagSet = null;
+        List<Long> sentences = new ArrayList<>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if ("id".equals(name) && value == JsonToken.VALUE_STRING) {
+                scan.viewIds.add(parser.getText());
+            } else if (!scan.readSentences) {
+                parser.skipChildren();
+            } else if ("metadata".equals(name) && value == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    boolean contains = "contains".equals(parser.getCurrentName());
+                    if (parser.nextToken() != JsonToken.START_OBJECT || !contains) {
+                        parser.skipChildren();
+                        continue;
+                    }
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        boolean sentence = Uri.SENTENCE.equals(parser.getCurrentName());
+                        if (parser.nextToken() != JsonToken.START_OBJECT || !sentence) {
+                            parser.skipChildren();
+                            continue;
+                        }
+                        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                            String field = parser.getCurrentName();
+                            if (parser.nextToken() == JsonToken.VALUE_STRING && "producer".equals(field)) {
+                                producer = parser.getText();
+                            } else if (parser.getCurrentToken() == JsonToken.VALUE_STRING && "type".equals(field)) {
+                                tagSet = parser.getText();
+                            } else {
+                                parser.skipChildren();
+                            }
+                        }
+                    }
+                }
+            } else if ("annotations".equals(name) && value == JsonToken.START_ARRAY) {
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+                        parser.skipChildren();
+                        continue;
+                    }
+                    String type = null;
+                    long start = -1;
+                    long end = -1;
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String field = parser.getCurrentName();
+                        JsonToken token = parser.nextToken();
+                        if ("@type".equals(field) && token == JsonToken.VALUE_STRING) {
+                            type = parser.getText();
+                        } else if ("start".equals(field) && token == JsonToken.VALUE_NUMBER_INT) {
+                            start = parser.getLongValue();
+                        } else if ("end".equals(field) && token == JsonToken.VALUE_NUMBER_INT) {
+                            end = parser.getLongValue();
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                    if (Uri.SENTENCE.equals(type) && start >= 0 && end >= start) {
+                        sentences.add(start);
+                        sentences.add(end);
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        if (scan.readSentences && LingpipeSentenceSpliter.class.getName().equals(producer)) {
+            scan.sentenceView = scan.views;
+            scan.sentenceTagSet = tagSet;
+            scan.sentences = sentences;
+        }
+    }
+
+    private static void expect(JsonToken actual, JsonToken expected) throws IOException {
+        if (actual != expected) {
+            throw new IOException(String.format("Expected %s but found %s", expected, actual));
+        }
+    }
+
+    /**
+     * A {@link Writer} over a {@link StringBuilder} that is reused between requests.
+     */
+    private static final class BuilderWriter extends Writer {
+
+        private StringBuilder builder = new StringBuilder(4096);
+
+        void reset(int capacity) {
+            builder.setLength(0);
+            builder.ensureCapacity(capacity);
+        }
+
+        /**
+         * Returns the text written and drops the buffer if it grew too large to keep.
+         */
+        String release() {
+            String text = builder.toString();
+            if (builder.capacity() > MAX_REUSED_BUFFER) {
+                builder = new StringBuilder(4096);
+            }
+            return text;
+        }
+
+        @Override
+        public void write(char[] cs, int offset, int length) {
+            builder.append(cs, offset, length);
+        }
+
+        @Override
+        public void write(String text, int offset, int length) {
+            builder.append(text, offset, offset + length);
+        }
+
+        @Override
+        public void write(int c) {
+            builder.append((char) c);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static final class Scan {
+        String discriminator;
+        String text;
+        String metadata;
+        int views;
+        final Set<String> viewIds = new HashSet<>();
+        boolean readSentences;
+        int sentenceView = -1;
+        String sentenceTagSet;
+        List<Long> sentences;
+    }
+}
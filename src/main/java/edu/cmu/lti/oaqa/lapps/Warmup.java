@@ -0,0 +1,306 @@
+/*
+ * Copyright 2014 The Language Application Grid
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package edu.cmu.lti.oaqa.lapps;
+
+import org.lappsgrid.serialization.Data;
+import org.lappsgrid.serialization.DataContainer;
+import org.lappsgrid.serialization.Serializer;
+import org.lappsgrid.serialization.lif.Container;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static org.lappsgrid.discriminator.Discriminators.Uri;
+
+/**
+ * Warms a service up before it takes traffic, and tracks which services are ready.
+ * <p>
+ * Right after a deploy the models are freshly loaded and the tagging and chunking code
+ * is still interpreted, so the first requests are several times slower than the rest.
+ * A warm-up runs a built-in corpus through the service in rounds of at least
+ * {@link #ROUND_MILLIS} ms, until the throughput of {@link #STABLE_ROUNDS} rounds in a
+ * row stays within {@link #TOLERANCE} of the round before, or the time limit is reached.
+ * Compiled code and loaded models are shared by all instances of a service class, so
+ * warming one instance warms them all.
+ * <p>
+ * A {@link LingpipeNER} also runs the corpus with each model in its
+ * {@link NerModels#getWarm() warm list} selected.
+ * <p>
+ * Warm-up requests bypass the result cache and are recorded in detached metrics, so the
+ * service metrics only describe real traffic.
+ */
+public final class Warmup {
+
+    /**
+     * Readiness of a service class.
+     */
+    public enum State {
+        WARMING, READY, FAILED
+    }
+
+    public static final long DEFAULT_MAX_MILLIS = 60000L;
+
+    static final long ROUND_MILLIS = 200L;
+
+    static final double TOLERANCE = 0.05;
+
+    static final int STABLE_ROUNDS = 2;
+
+    /**
+     * Class path resource, next to this class, with one corpus sentence per line.
+     */
+    static final String SENTENCES = "sentences.txt";
+
+    private static final ConcurrentMap<String, State> STATES = new ConcurrentHashMap<>();
+
+    private Warmup() {
+    }
+
+    /**
+     * Warms the service up for at most {@link #DEFAULT_MAX_MILLIS} ms.
+     */
+    public static Result run(AbstractLingpipeService service) {
+        return run(service, DEFAULT_MAX_MILLIS);
+    }
+
+    /**
+     * Warms the service up for at most {@code maxMillis} ms. Its class is
+     * {@link State#WARMING} meanwhile, and {@link State#READY} once throughput is stable or
+     * the time is up, or {@link State#FAILED} if the service fails on the corpus.
+     */
+    public static Result run(AbstractLingpipeService service, long maxMillis) {
+        String name = service.getClass().getName();
+        ServiceMetrics metrics = ServiceMetrics.detached(service.getClass());
+        STATES.put(name, State.WARMING);
+        try {
+            List<String> inputs = inputs(service);
+            for (String input : inputs) {
+                Data output = Serializer.parse(service.process(input, metrics), Data.class);
+                if (Uri.ERROR.equals(output.getDiscriminator())) {
+                    throw new IllegalStateException("Warm-up request failed: " + output.getPayload());
+                }
+            }
+
+            long startTime = System.nanoTime();
+            long deadline = startTime + maxMillis * 1000000L;
+            double previous = 0.0;
+            double rate = 0.0;
+            int stable = 0;
+            int rounds = 0;
+            while (stable < STABLE_ROUNDS && System.nanoTime() < deadline) {
+                long roundStart = System.nanoTime();
+                long roundEnd = roundStart + ROUND_MILLIS * 1000000L;
+                long chars = 0;
+                do {
+                    for (String input : inputs) {
+                        service.process(input, metrics);
+                        chars += input.length();
+                    }
+                } while (System.nanoTime() < roundEnd);
+                rate = chars / ((System.nanoTime() - roundStart) / 1e9);
+                stable = previous > 0.0 && Math.abs(rate - previous) <= TOLERANCE * previous ? stable + 1 : 0;
+                previous = rate;
+                rounds++;
+            }
+            STATES.put(name, State.READY);
+            return new Result(name, rounds, rate, (System.nanoTime() - startTime) / 1000000L,
+                    stable >= STABLE_ROUNDS);
+        } catch (RuntimeException e) {
+            STATES.put(name, State.FAILED);
+            throw e;
+        }
+    }
+
+    /**
+     * Marks a service class as {@link State#WARMING} ahead of its warm-up, so readiness
+     * checks made before the warm-up starts already wait for it.
+     */
+    public static void expect(String serviceClass) {
+        STATES.putIfAbsent(serviceClass, State.WARMING);
+    }
+
+    /**
+     * Marks a service class as {@link State#FAILED}, e.g. when it cannot be created.
+     */
+    public static void fail(String serviceClass) {
+        STATES.put(serviceClass, State.FAILED);
+    }
+
+    /**
+     * Returns the state of every service class that has been warmed up or is expected to be.
+     */
+    public static Map<String, State> states() {
+        return Collections.unmodifiableMap(new TreeMap<>(STATES));
+    }
+
+    /**
+     * Returns true if every service class that has been warmed up or is expected to be
+     * is {@link State#READY}.
+     */
+    public static boolean isReady() {
+        for (State state : STATES.values()) {
+            if (state != State.READY) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the sentences of the built-in corpus, which the benchmarks use as well.
+     */
+    public static List<String> sentences() {
+        InputStream in = Warmup.class.getResourceAsStream(SENTENCES);
+        if (in == null) {
+            throw new IllegalStateException("Missing class path resource " + SENTENCES);
+        }
+        List<String> sentences = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().isEmpty()) {
+                    sentences.add(line.trim());
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return sentences;
+    }
+
+    /**
+     * A sentence, a paragraph, and an article long enough to be split in parallel mode.
+     */
+    static List<String> corpus() {
+        List<String> sentences = sentences();
+        List<String> corpus = new ArrayList<>();
+        corpus.add(sentences.get(0));
+        StringBuilder text = new StringBuilder();
+        for (String sentence : sentences) {
+            text.append(sentence).append(' ');
+        }
+        corpus.add(text.toString().trim());
+        for (int i = 0; text.length() < 4 * LingpipeNER.MIN_SEGMENT_LENGTH; i++) {
+            text.append(sentences.get(i % sentences.size())).append(' ');
+        }
+        corpus.add(text.toString().trim());
+        return corpus;
+    }
+
+    /**
+     * Returns the warm-up requests for the service: the corpus, and for NER the corpus
+     * again for each model in the warm list.
+     */
+    private static List<String> inputs(AbstractLingpipeService service) {
+        List<String> models = new ArrayList<>();
+        models.add(null);
+        if (service instanceof LingpipeNER && ((LingpipeNER) service).getModels() != null) {
+            models.addAll(((LingpipeNER) service).getModels().getWarm());
+        }
+        List<String> inputs = new ArrayList<>();
+        for (String model : models) {
+            for (String text : corpus()) {
+                inputs.add(input(service, text, model));
+            }
+        }
+        return inputs;
+    }
+
+    /**
+     * Returns the request for the text: plain text, or LIF with tokens and sentences for a
+     * service that reads more than the text, or LIF selecting the NER model if there is one.
+     */
+    private static String input(AbstractLingpipeService service, String text, String model) {
+        if (service.isTextOnly() && model == null) {
+            return new Data<>(Uri.TEXT, text).asJson();
+        }
+        Container container = new Container();
+        container.setText(text);
+        if (model != null) {
+            container.getMetadata().put(LingpipeNER.MODEL, model);
+        }
+        if (!service.isTextOnly()) {
+            new LingpipeTokenizer().annotate(container);
+            new LingpipeSentenceSpliter().annotate(container);
+        }
+        return new DataContainer(container).asJson();
+    }
+
+    /**
+     * The outcome of one warm-up.
+     */
+    public static final class Result {
+
+        private final String service;
+        private final int rounds;
+        private final double charsPerSecond;
+        private final long millis;
+        private final boolean stable;
+
+        Result(String service, int rounds, double charsPerSecond, long millis, boolean stable) {
+            this.service = service;
+            this.rounds = rounds;
+            this.charsPerSecond = charsPerSecond;
+            this.millis = millis;
+            this.stable = stable;
+        }
+
+        public String getService() {
+            return service;
+        }
+
+        public int getRounds() {
+            return rounds;
+        }
+
+        /**
+         * Throughput of the last round, in request characters per second.
+         */
+        public double getCharsPerSecond() {
+            return charsPerSecond;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        /**
+         * Whether throughput stabilized before the time limit.
+         */
+        public boolean isStable() {
+            return stable;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s warmed up in %d ms, %d rounds, %.0f chars/s%s", service, millis, rounds,
+                    charsPerSecond, stable ? "" : " (not yet stable)");
+        }
+    }
+}
@@ -0,0 +1,490 @@
+package edu.cmu.lti.oaqa.lapps;
+
+import org.junit.After;
+import org.junit.Test;
+import org.lappsgrid.api.ProcessingService;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Drives {@link AsyncServiceServlet} the way a servlet container would, with in-memory
+ * requests, responses and async contexts.
+ */
+public class AsyncServiceServletTest {
+
+    private static final String ECHO = "/AsyncServiceServletTest$Echo";
+
+    private static final String BLOCKING = "/AsyncServiceServletTest$Blocking";
+
+    private AsyncServiceServlet servlet;
+
+    @After
+    public void tearDown() {
+        Blocking.gate.countDown();
+        if (servlet != null) {
+            servlet.destroy();
+        }
+    }
+
+    @Test
+    public void testReadAndWriteListeners() throws Exception {
+        servlet = servlet("maxPending", "1");
+        Call call = new Call(ECHO, "application/json", -1);
+        call.post();
+        assertNotNull("Body not read with a ReadListener", call.in.listener);
+
+        // The body arrives in two parts, with the stream not ready in between.
+        call.in.arrive("{\"discriminator\":");
+        call.in.arrive("\"text\"}");
+        call.in.finish();
+        call.out.awaitListener();
+
+        // The client takes one write at a time.
+        while (call.completions == 0) {
+            call.out.drain();
+        }
+        assertEquals("{\"discriminator\":\"text\"}", call.out.bytes.toString(StandardCharsets.UTF_8.name()));
+        assertEquals("application/json", call.responseType);
+        assertEquals(1, call.completions);
+        assertEquals(0, call.status);
+
+        // The slot is free again.
+        Call next = new Call(ECHO, "application/json", -1);
+        next.post();
+        assertEquals(0, next.status);
+    }
+
+    @Test
+    public void testTooManyRequests() throws Exception {
+        servlet = servlet("maxPending", "1");
+        Call first = new Call(ECHO, "application/json", -1);
+        first.post();
+
+        Call second = new Call(ECHO, "application/json", -1);
+        second.post();
+        assertEquals(AsyncServiceServlet.SC_TOO_MANY_REQUESTS, second.status);
+        assertEquals("1", second.headers.get("Retry-After"));
+        assertFalse("Refused request went async", second.async);
+
+        first.complete();
+        Call third = new Call(ECHO, "application/json", -1);
+        third.post();
+        assertEquals(0, third.status);
+    }
+
+    @Test
+    public void testQueueFull() throws Exception {
+        Blocking.gate = new CountDownLatch(1);
+        servlet = servlet("virtualThreads", "false", "queueCapacity", "1", "maxPending", "1000");
+
+        // One request per worker thread, one queued, then the queue is full.
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int i = 0; i < cores + 1; i++) {
+            Call call = new Call(BLOCKING, "application/json", -1);
+            call.post();
+            call.in.finish();
+            assertEquals("Request " + i + " refused", 0, call.status);
+        }
+        Call refused = new Call(BLOCKING, "application/json", -1);
+        refused.post();
+        refused.in.finish();
+        assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, refused.status);
+        assertEquals("1", refused.headers.get("Retry-After"));
+        assertEquals(1, refused.completions);
+    }
+
+    @Test
+    public void testRequestTooLarge() throws Exception {
+        servlet = servlet("maxRequestBytes", "16", "maxPending", "1");
+        Call declared = new Call(ECHO, "application/json", 17);
+        declared.post();
+        assertEquals(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, declared.status);
+        assertFalse("Refused request went async", declared.async);
+
+        // Without a content length the limit applies while reading.
+        Call chunked = new Call(ECHO, "application/json", -1);
+        chunked.post();
+        chunked.in.arrive("0123456789");
+        chunked.in.arrive("0123456789");
+        assertEquals(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, chunked.status);
+        assertNull("Retrying cannot help", chunked.headers.get("Retry-After"));
+        assertEquals(1, chunked.completions);
+
+        Call next = new Call(ECHO, "application/json", -1);
+        next.post();
+        assertEquals(0, next.status);
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        Blocking.gate = new CountDownLatch(1);
+        servlet = servlet("maxPending", "1", "timeoutMillis", "1000");
+        Call call = new Call(BLOCKING, "application/json", -1);
+        call.post();
+        assertEquals(1000L, call.timeout);
+        call.in.finish();
+
+        call.timeout();
+        assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, call.status);
+        assertEquals("1", call.headers.get("Retry-After"));
+        assertEquals(1, call.completions);
+
+        // The worker finishing later neither completes the request again nor frees a
+        // second slot.
+        Blocking.gate.countDown();
+        call.out.awaitListener();
+        call.complete();
+        assertEquals(1, call.completions);
+
+        Call next = new Call(ECHO, "application/json", -1);
+        next.post();
+        assertEquals(0, next.status);
+        Call refused = new Call(ECHO, "application/json", -1);
+        refused.post();
+        assertEquals(AsyncServiceServlet.SC_TOO_MANY_REQUESTS, refused.status);
+    }
+
+    @Test
+    public void testReleasedOnce() throws Exception {
+        servlet = servlet("maxPending", "2");
+        Call call = new Call(ECHO, "application/json", -1);
+        call.post();
+        for (AsyncListener listener : call.listeners) {
+            listener.onError(new AsyncEvent(call.context));
+            listener.onComplete(new AsyncEvent(call.context));
+        }
+        call.in.listener.onError(new IOException("Connection reset"));
+
+        new Call(ECHO, "application/json", -1).post();
+        new Call(ECHO, "application/json", -1).post();
+        Call refused = new Call(ECHO, "application/json", -1);
+        refused.post();
+        assertEquals(AsyncServiceServlet.SC_TOO_MANY_REQUESTS, refused.status);
+    }
+
+    @Test
+    public void testAcceptsBinary() {
+        assertTrue(AsyncServiceServlet.acceptsBinary(BinaryLif.MEDIA_TYPE));
+        assertTrue(AsyncServiceServlet.acceptsBinary("application/json;q=0.5, " + BinaryLif.MEDIA_TYPE));
+        assertTrue(AsyncServiceServlet.acceptsBinary(BinaryLif.MEDIA_TYPE + ";q=0.8, */*;q=0.1"));
+        assertFalse(AsyncServiceServlet.acceptsBinary(null));
+        assertFalse(AsyncServiceServlet.acceptsBinary("*/*"));
+        assertFalse("q=0 refuses the type", AsyncServiceServlet.acceptsBinary(BinaryLif.MEDIA_TYPE + "; q=0"));
+        assertFalse(AsyncServiceServlet.acceptsBinary(BinaryLif.MEDIA_TYPE + ";q=0.5, application/*"));
+        assertFalse(AsyncServiceServlet.acceptsBinary(BinaryLif.MEDIA_TYPE + "-v2"));
+    }
+
+    @Test
+    public void testUnknownService() throws Exception {
+        servlet = servlet();
+        Call call = new Call("/LingpipeParser", "application/json", -1);
+        call.post();
+        assertEquals(HttpServletResponse.SC_NOT_FOUND, call.status);
+    }
+
+    private static AsyncServiceServlet servlet(String... parameters) throws Exception {
+        final Map<String, String> init = new HashMap<>();
+        init.put("services", Echo.class.getName() + "," + Blocking.class.getName());
+        for (int i = 0; i < parameters.length; i += 2) {
+            init.put(parameters[i], parameters[i + 1]);
+        }
+        final ServletContext context = proxy(ServletContext.class, (method, args) -> null);
+        ServletConfig config = proxy(ServletConfig.class, (method, args) -> {
+            switch (method) {
+                case "getInitParameter":
+                    return init.get((String) args[0]);
+                case "getServletContext":
+                    return context;
+                case "getServletName":
+                    return "AsyncServiceServlet";
+                default:
+                    return null;
+            }
+        });
+        AsyncServiceServlet servlet = new AsyncServiceServlet();
+        servlet.init(config);
+        return servlet;
+    }
+
+    /**
+     * Returns whatever {@code handler} answers for the method name and arguments, or the
+     * primitive default when it answers {@code null}.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, final Handler handler) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            Object result = handler.handle(method.getName(), args);
+            if (result == null && method.getReturnType().isPrimitive()) {
+                Class<?> returnType = method.getReturnType();
+                if (returnType == boolean.class) {
+                    return false;
+                } else if (returnType == long.class) {
+                    return 0L;
+                } else if (returnType == int.class) {
+                    return 0;
+                }
+            }
+            return result;
+        });
+    }
+
+    private interface Handler {
+        Object handle(String method, Object[] args) throws Exception;
+    }
+
+    /**
+     * One request and its response, as the container would hold them.
+     */
+    private final class Call {
+
+        final String path;
+        final String contentType;
+        final long contentLength;
+        final Input in = new Input();
+        final Output out = new Output();
+        final Map<String, String> headers = new HashMap<>();
+        final List<AsyncListener> listeners = new ArrayList<>();
+        AsyncContext context;
+        HttpServletRequest request;
+        HttpServletResponse response;
+        volatile int status;
+        volatile String responseType;
+        volatile int completions;
+        volatile boolean async;
+        volatile long timeout;
+        String accept;
+
+        Call(String path, String contentType, long contentLength) {
+            this.path = path;
+            this.contentType = contentType;
+            this.contentLength = contentLength;
+            request = proxy(HttpServletRequest.class, (method, args) -> {
+                switch (method) {
+                    case "getPathInfo":
+                        return this.path;
+                    case "getContentType":
+                        return this.contentType;
+                    case "getContentLengthLong":
+                        return this.contentLength;
+                    case "getHeader":
+                        return "Accept".equals(args[0]) ? accept : null;
+                    case "getInputStream":
+                        return in;
+                    case "startAsync":
+                        async = true;
+                        return context;
+                    default:
+                        return null;
+                }
+            });
+            response = proxy(HttpServletResponse.class, (method, args) -> {
+                switch (method) {
+                    case "sendError":
+                        status = (Integer) args[0];
+                        return null;
+                    case "setHeader":
+                        headers.put((String) args[0], (String) args[1]);
+                        return null;
+                    case "setContentType":
+                        responseType = (String) args[0];
+                        return null;
+                    case "isCommitted":
+                        return status != 0 || out.bytes.size() > 0;
+                    case "getOutputStream":
+                        return out;
+                    default:
+                        return null;
+                }
+            });
+            context = proxy(AsyncContext.class, (method, args) -> {
+                switch (method) {
+                    case "getRequest":
+                        return request;
+                    case "getResponse":
+                        return response;
+                    case "setTimeout":
+                        timeout = (Long) args[0];
+                        return null;
+                    case "addListener":
+                        listeners.add((AsyncListener) args[0]);
+                        return null;
+                    case "complete":
+                        if (completions++ > 0) {
+                            throw new IllegalStateException("Already completed");
+                        }
+                        return null;
+                    default:
+                        return null;
+                }
+            });
+        }
+
+        void post() throws Exception {
+            servlet.doPost(request, response);
+        }
+
+        void timeout() throws IOException {
+            for (AsyncListener listener : listeners) {
+                listener.onTimeout(new AsyncEvent(context));
+            }
+        }
+
+        /**
+         * Completes the request on the container side, e.g. after the client went away.
+         */
+        void complete() throws IOException {
+            for (AsyncListener listener : listeners) {
+                listener.onComplete(new AsyncEvent(context));
+            }
+        }
+
+        final class Input extends ServletInputStream {
+
+            final Queue<byte[]> parts = new ArrayDeque<>();
+            ReadListener listener;
+            boolean finished;
+
+            void arrive(String part) throws IOException {
+                parts.add(part.getBytes(StandardCharsets.UTF_8));
+                listener.onDataAvailable();
+            }
+
+            void finish() throws IOException {
+                finished = true;
+                listener.onAllDataRead();
+            }
+
+            @Override
+            public boolean isReady() {
+                return !parts.isEmpty();
+            }
+
+            @Override
+            public boolean isFinished() {
+                return finished && parts.isEmpty();
+            }
+
+            @Override
+            public void setReadListener(ReadListener listener) {
+                this.listener = listener;
+            }
+
+            @Override
+            public int read() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                byte[] part = parts.poll();
+                if (part == null) {
+                    return -1;
+                }
+                assertTrue("Part larger than the read buffer", part.length <= len);
+                System.arraycopy(part, 0, b, off, part.length);
+                return part.length;
+            }
+        }
+
+        final class Output extends ServletOutputStream {
+
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final CountDownLatch listenerSet = new CountDownLatch(1);
+            WriteListener listener;
+            boolean ready;
+
+            void awaitListener() throws InterruptedException {
+                assertTrue("Result not handed back", listenerSet.await(10, TimeUnit.SECONDS));
+                assertEquals("application/json", responseType);
+            }
+
+            /**
+             * Lets the client take one more write.
+             */
+            void drain() throws IOException {
+                ready = true;
+                listener.onWritePossible();
+            }
+
+            @Override
+            public boolean isReady() {
+                return ready;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener listener) {
+                this.listener = listener;
+                listenerSet.countDown();
+            }
+
+            @Override
+            public void write(int b) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                bytes.write(b, off, len);
+                ready = false;
+            }
+        }
+    }
+
+    /**
+     * Returns its input.
+     */
+    public static class Echo implements ProcessingService {
+
+        @Override
+        public String execute(String input) {
+            return input;
+        }
+
+        @Override
+        public String getMetadata() {
+            return "{}";
+        }
+    }
+
+    /**
+     * Returns its input once {@link #gate} opens.
+     */
+    public static class Blocking extends Echo {
+
+        static volatile CountDownLatch gate = new CountDownLatch(0);
+
+        @Override
+        public String execute(String input) {
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return input;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package edu.cmu.lti.oaqa.lapps;
+
+import org.junit.Test;
+import org.lappsgrid.serialization.Data;
+import org.lappsgrid.serialization.DataContainer;
+import org.lappsgrid.serialization.Serializer;
+import org.lappsgrid.serialization.lif.Container;
+import org.lappsgrid.vocabulary.Features;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+import static org.lappsgrid.discriminator.Discriminators.Uri;
+
+public class BinaryLifTest {
+
+    private static final String TEXT = "Barack Obama is the 44th President of the United States. "
+            + "Caf\u00e9 owners in Z\u00fcrich met on Monday.";
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        String json = new LingpipeTokenizer().execute(new Data<>(Uri.TEXT, TEXT).asJson());
+        byte[] bytes = BinaryLif.encode(json);
+        assertTrue(BinaryLif.isBinary(bytes));
+        assertTrue("Binary LIF not smaller than JSON: " + bytes.length,
+                bytes.length < json.getBytes(StandardCharsets.UTF_8).length / 2);
+
+        String decoded = BinaryLif.decode(bytes);
+        assertEquals("Round trip changed the document", Serializer.parse(json, DataContainer.class).asJson(),
+                Serializer.parse(decoded, DataContainer.class).asJson());
+    }
+
+    @Test
+    public void testRoundTripValues() throws Exception {
+        final String json = "{\"text\":\"abc\",\"start\":1,\"end\":2,\"s\":\"b\",\"big\":123456789012345678901234567890,"
+                + "\"f\":-1.50,\"t\":true,\"n\":null,\"a\":[\"b\",\"b\",-7,{}],\"end\":0,\"w\":\"b\"}";
+        assertEquals(json, BinaryLif.decode(BinaryLif.encode(json)));
+    }
+
+    @Test
+    public void testExecuteBinary() throws Exception {
+        byte[] tokens = new LingpipeTokenizer().executeBinary(
+                BinaryLif.encode(new Data<>(Uri.TEXT, TEXT).asJson()));
+        byte[] tags = new LingpipeTagger().executeBinary(tokens);
+
+        Container container = Serializer.parse(BinaryLif.decode(tags), DataContainer.class).getPayload();
+        assertEquals(TEXT, container.getText());
+        assertEquals("Expected token and tag views", 2, container.getViews().size());
+        assertEquals("np", container.getViews().get(1).getAnnotations().get(0)
+                .getFeature(Features.Token.PART_OF_SPEECH));
+    }
+
+    @Test
+    public void testExecuteBinaryInvalid() throws Exception {
+        byte[] output = new LingpipeTokenizer().executeBinary(new byte[]{'L', 'I', 'F', 1, (byte) 0xFF});
+        Data data = Serializer.parse(BinaryLif.decode(output), Data.class);
+        assertEquals(Uri.ERROR, data.getDiscriminator());
+    }
+
+    @Test(expected = IOException.class)
+    public void testDecodeNotBinary() throws Exception {
+        BinaryLif.decode("{}".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test(expected = IOException.class)
+    public void testDecodeTruncated() throws Exception {
+        byte[] bytes = BinaryLif.encode("{\"views\":[{\"id\":\"v1\"}]}");
+        BinaryLif.decode(Arrays.copyOf(bytes, bytes.length - 1));
+    }
+}
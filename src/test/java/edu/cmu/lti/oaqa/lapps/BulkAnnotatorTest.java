@@ -0,0 +1,149 @@
+package edu.cmu.lti.oaqa.lapps;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lappsgrid.serialization.Data;
+import org.lappsgrid.serialization.Serializer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+import static org.lappsgrid.discriminator.Discriminators.Uri;
+
+public class BulkAnnotatorTest {
+
+    private Path input;
+
+    private Path output;
+
+    @Before
+    public void setUp() throws IOException {
+        input = Files.createTempDirectory("corpus");
+        output = Files.createTempDirectory("annotated");
+
+        Files.write(input.resolve("a.txt"), "Barack Obama is the 44th President.".getBytes(StandardCharsets.UTF_8));
+        try (Writer out = new OutputStreamWriter(new GZIPOutputStream(
+                Files.newOutputStream(input.resolve("b.jsonl.gz"))), StandardCharsets.UTF_8)) {
+            for (int i = 0; i < 3; i++) {
+                out.write(new Data<>(Uri.TEXT, "Document " + i + " of the archive.").asJson());
+                out.write("\n");
+            }
+        }
+        String warc = record("warcinfo", "application/warc-fields", "software: test\r\n")
+                + record("conversion", "text/plain", "Converted page text.")
+                + record("resource", "image/png", "not text")
+                + record("resource", "text/plain; charset=utf-8", "A plain text resource.");
+        Files.write(input.resolve("c.warc"), warc.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        delete(input);
+        delete(output);
+    }
+
+    @Test
+    public void testAnnotatesAllFormats() throws Exception {
+        BulkAnnotator.Progress progress = annotator().run(Collections.singletonList(input));
+        assertEquals(6, progress.getDocuments());
+        assertEquals(0, progress.getErrors());
+        assertEquals(3, progress.getShards());
+        assertEquals("Not the document text", "Barack Obama is the 44th President.".length()
+                + 3 * "Document 0 of the archive.".length() + "Converted page text.".length()
+                + "A plain text resource.".length(), progress.getChars());
+
+        List<String> lines = readShards();
+        assertEquals(6, lines.size());
+        for (String line : lines) {
+            Map document = Serializer.parse(line, Map.class);
+            assertNotNull(document.get("id"));
+            Map data = (Map) document.get("data");
+            assertEquals(line, Uri.LAPPS, data.get("discriminator"));
+        }
+        assertTrue(lines.get(0).contains("Barack Obama"));
+        assertTrue(lines.get(4).contains("Converted page text."));
+        assertTrue(lines.get(5).contains("A plain text resource."));
+    }
+
+    @Test
+    public void testResumesMissingShards() throws Exception {
+        annotator().run(Collections.singletonList(input));
+        List<String> first = readShards();
+
+        BulkAnnotator.Progress progress = annotator().run(Collections.singletonList(input));
+        assertEquals(0, progress.getDocuments());
+        assertEquals(6, progress.getSkipped());
+
+        Files.delete(BulkAnnotator.shard(output, 1));
+        progress = annotator().run(Collections.singletonList(input));
+        assertEquals(2, progress.getDocuments());
+        assertEquals(4, progress.getSkipped());
+        assertEquals(first, readShards());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRejectsOtherInputs() throws Exception {
+        annotator().run(Collections.singletonList(input));
+        BulkAnnotator annotator = annotator();
+        annotator.setShardSize(3);
+        annotator.run(Collections.singletonList(input));
+    }
+
+    private BulkAnnotator annotator() {
+        BulkAnnotator annotator = new BulkAnnotator(new LingpipeTokenizer(), output);
+        annotator.setShardSize(2);
+        annotator.setReportSeconds(0);
+        annotator.setLog(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }));
+        return annotator;
+    }
+
+    private List<String> readShards() throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; Files.exists(BulkAnnotator.shard(output, i)); i++) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(
+                    Files.newInputStream(BulkAnnotator.shard(output, i))), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lines.add(line);
+                }
+            }
+        }
+        return lines;
+    }
+
+    private static String record(String type, String contentType, String block) {
+        return "WARC/1.0\r\nWARC-Type: " + type + "\r\nContent-Type: " + contentType
+                + "\r\nContent-Length: " + block.getBytes(StandardCharsets.UTF_8).length + "\r\n\r\n"
+                + block + "\r\n\r\n";
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> walk = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) walk.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}
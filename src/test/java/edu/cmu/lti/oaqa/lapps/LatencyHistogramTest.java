@@ -0,0 +1,39 @@
+package edu.cmu.lti.oaqa.lapps;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBuckets() {
+        for (long value = 0; value < 100000; value++) {
+            int index = LatencyHistogram.index(value);
+            assertTrue("Value above its bucket: " + value, value <= LatencyHistogram.upper(index));
+            if (index > 0) {
+                assertTrue("Value in the wrong bucket: " + value, value > LatencyHistogram.upper(index - 1));
+            }
+        }
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.upper(LatencyHistogram.index(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void testPercentile() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0L, histogram.getPercentile(50.0));
+        for (long value = 1; value <= 1000000; value++) {
+            histogram.record(value * 1000);
+        }
+        assertEquals(1000000L, histogram.getCount());
+        assertEquals(1000000000L, histogram.getMax());
+        assertEquals(500000500.0, histogram.getMean(), 1.0);
+        assertEquals(500000000.0, histogram.getPercentile(50.0), 500000000.0 / LatencyHistogram.SUB_BUCKETS);
+        assertEquals(990000000.0, histogram.getPercentile(99.0), 990000000.0 / LatencyHistogram.SUB_BUCKETS);
+        assertEquals(1000000000L, histogram.getPercentile(100.0));
+
+        histogram.reset();
+        assertEquals(0L, histogram.getCount());
+        assertEquals(0L, histogram.getPercentile(99.0));
+    }
+}
@@ -14,7 +14,13 @@ import org.lappsgrid.serialization.lif.Container;
 import org.lappsgrid.serialization.lif.View;
 import org.lappsgrid.vocabulary.Features;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -97,6 +103,182 @@ public class LingpipeNERTest {
         assertEquals("Token 2: wrong word", "United States", ne2.getFeature(Features.Token.WORD));
     }
 
+    @Test
+    public void testExecuteParallel() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 5 * LingpipeNER.MIN_SEGMENT_LENGTH) {
+            sb.append("Barack Obama is the 44th President of the United States. ");
+            sb.append("He met Angela Merkel in Berlin on Monday. ");
+        }
+        final String text = sb.toString().trim();
+
+        List<Annotation> expected = execute(text).getViews().get(0).getAnnotations();
+        ((LingpipeNER) service).setParallel(true);
+        List<Annotation> actual = execute(text).getViews().get(0).getAnnotations();
+
+        assertEquals("Different number of NEs", expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals("NE " + i + ": wrong start", expected.get(i).getStart(), actual.get(i).getStart());
+            assertEquals("NE " + i + ": wrong end", expected.get(i).getEnd(), actual.get(i).getEnd());
+            assertEquals("NE " + i + ": wrong type", expected.get(i).getFeature(Features.Token.TYPE),
+                    actual.get(i).getFeature(Features.Token.TYPE));
+        }
+    }
+
+    @Test
+    public void testReuseSentenceView() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 5 * LingpipeNER.MIN_SEGMENT_LENGTH) {
+            sb.append("Barack Obama is the 44th President of the United States. ");
+            sb.append("He met Angela Merkel in Berlin on Monday. ");
+        }
+        final String text = sb.toString().trim();
+        LingpipeNER ner = (LingpipeNER) service;
+        ner.setParallel(true);
+
+        Container container = new Container();
+        container.setText(text);
+        assertNull(LingpipeNER.splitterSentenceEnds(container));
+        List<Annotation> expected = ner.annotate(container).getAnnotations();
+
+        container = new Container();
+        container.setText(text);
+        new LingpipeSentenceSpliter().annotate(container);
+        assertArrayEquals(LingpipeSentenceSpliter.sentenceEnds(text.toCharArray(), 0, text.length()),
+                LingpipeNER.splitterSentenceEnds(container));
+        List<Annotation> actual = ner.annotate(container).getAnnotations();
+
+        assertEquals("Different number of NEs", expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals("NE " + i + ": wrong start", expected.get(i).getStart(), actual.get(i).getStart());
+            assertEquals("NE " + i + ": wrong end", expected.get(i).getEnd(), actual.get(i).getEnd());
+        }
+
+        // Sentences from another splitter are not used.
+        container = new Container();
+        container.setText(text);
+        View view = container.newView();
+        view.newAnnotation("s1", Uri.SENTENCE, 0, 10);
+        view.addContains(Uri.SENTENCE, "some.other.Splitter", "sentence");
+        assertNull(LingpipeNER.splitterSentenceEnds(container));
+    }
+
+    @Test
+    public void testExecuteConfidence() throws Exception {
+        final String text = "Barack Obama is the 44th President of the United States.";
+        int all = execute(text).getViews().get(0).getAnnotations().size();
+
+        LingpipeNER ner = (LingpipeNER) service;
+        ner.setConfidenceThreshold(0.5);
+        View view = execute(text).getViews().get(0);
+        List<Annotation> annotations = view.getAnnotations();
+        assertTrue("More NEs than without a threshold", annotations.size() <= all);
+        for (Annotation annotation : annotations) {
+            double score = Double.parseDouble(annotation.getFeature("score"));
+            assertTrue("NE below the threshold: " + score, score >= 0.5);
+        }
+        assertEquals(0.5, ((Number) view.getMetadata().get(LingpipeNER.CONFIDENCE_THRESHOLD)).doubleValue(), 0.0);
+
+        // The request overrides the service setting.
+        Container container = new Container();
+        container.setText(text);
+        container.getMetadata().put(LingpipeNER.CONFIDENCE_THRESHOLD, 0.0);
+        container.getMetadata().put(LingpipeNER.MAX_CHUNKS, 1);
+        view = execute(container).getViews().get(0);
+        assertEquals("Expected only the best NE", 1, view.getAnnotations().size());
+        assertEquals(1, ((Number) view.getMetadata().get(LingpipeNER.MAX_CHUNKS)).intValue());
+    }
+
+    @Test
+    public void testInvalidRequestSettings() {
+        Object[][] settings = {
+                {LingpipeNER.CONFIDENCE_THRESHOLD, 1.5, "Confidence threshold must be between 0 and 1"},
+                {LingpipeNER.CONFIDENCE_THRESHOLD, -0.1, "Confidence threshold must be between 0 and 1"},
+                {LingpipeNER.MAX_CHUNKS, -1, "Maximum number of chunks must not be negative"},
+                {LingpipeNER.MAX_CHUNKS, 2.5, "Invalid " + LingpipeNER.MAX_CHUNKS},
+        };
+        for (Object[] setting : settings) {
+            Container container = new Container();
+            container.setText("Barack Obama is the 44th President of the United States.");
+            container.getMetadata().put(setting[0], setting[1]);
+            String json = service.execute(new DataContainer(container).asJson());
+            Data data = Serializer.parse(json, Data.class);
+            assertEquals("Accepted " + setting[0] + "=" + setting[1], Uri.ERROR, data.getDiscriminator());
+            assertTrue(data.getPayload().toString(), data.getPayload().toString().contains((String) setting[2]));
+        }
+    }
+
+    @Test
+    public void testChunkReader() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 3000) {
+            sb.append("Barack Obama is the 44th President of the United States. ");
+            sb.append("He met Angela Merkel in Berlin on Monday. ");
+        }
+        final String text = sb.toString().trim();
+
+        List<Annotation> expected = execute(text).getViews().get(0).getAnnotations();
+        final List<Annotation> actual = new ArrayList<>();
+        ((LingpipeNER) service).chunk(new StringReader(text), actual::add, 300);
+
+        assertEquals("Different number of NEs", expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals("NE " + i + ": wrong start", expected.get(i).getStart(), actual.get(i).getStart());
+            assertEquals("NE " + i + ": wrong end", expected.get(i).getEnd(), actual.get(i).getEnd());
+            assertEquals("NE " + i + ": wrong word", expected.get(i).getFeature(Features.Token.WORD),
+                    actual.get(i).getFeature(Features.Token.WORD));
+        }
+    }
+
+    @Test
+    public void testChunkReaderConfidence() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 3000) {
+            sb.append("Barack Obama is the 44th President of the United States. ");
+            sb.append("He met Angela Merkel in Berlin on Monday. ");
+        }
+        final String text = sb.toString().trim();
+
+        final List<Annotation> actual = new ArrayList<>();
+        ((LingpipeNER) service).chunk(new StringReader(text), actual::add, 300, null, 0.5, 3);
+        assertEquals("Expected the 3 best NEs", 3, actual.size());
+        for (int i = 0; i < actual.size(); i++) {
+            double score = Double.parseDouble(actual.get(i).getFeature("score"));
+            assertTrue("NE below the threshold: " + score, score >= 0.5);
+            assertTrue("NEs not in text order", i == 0 || actual.get(i - 1).getStart() < actual.get(i).getStart());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testChunkReaderUnknownModel() throws Exception {
+        ((LingpipeNER) service).chunk(new StringReader("Who is next?"), a -> { }, 300, "unknown", 0.0, 0);
+    }
+
+    @Test
+    public void testModelIdCoversParallelAndModel() throws Exception {
+        LingpipeNER ner = (LingpipeNER) service;
+        String id = ner.getModelId();
+        ner.setParallel(true);
+        assertFalse("Parallel mode shares cache entries", id.equals(ner.getModelId()));
+        ner.setParallel(false);
+
+        File copy = File.createTempFile("ner", ".model");
+        try (InputStream in = getClass().getResourceAsStream(LingpipeNER.DEFAULT_MODEL)) {
+            Files.copy(in, copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            ner.loadChucker(copy.toURI().toURL());
+            assertFalse("Another model shares cache entries", id.equals(ner.getModelId()));
+        } finally {
+            ModelRegistry.evict(copy.toURI().toURL());
+            copy.delete();
+        }
+    }
+
+    @Test
+    public void testMaxCandidates() {
+        assertEquals(LingpipeNER.MAX_CANDIDATES, LingpipeNER.maxCandidates(100));
+        int length = 100 * LingpipeNER.MAX_CANDIDATES;
+        assertEquals(length / LingpipeNER.CHARS_PER_CANDIDATE, LingpipeNER.maxCandidates(length));
+    }
 
     protected Container execute(String input) {
         return execute(new Data<>(Uri.TEXT, input));
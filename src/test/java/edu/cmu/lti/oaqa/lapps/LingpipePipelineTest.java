@@ -0,0 +1,174 @@
+package edu.cmu.lti.oaqa.lapps;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lappsgrid.api.WebService;
+import org.lappsgrid.metadata.IOSpecification;
+import org.lappsgrid.metadata.ServiceMetadata;
+import org.lappsgrid.serialization.Data;
+import org.lappsgrid.serialization.DataContainer;
+import org.lappsgrid.serialization.Serializer;
+import org.lappsgrid.serialization.lif.Annotation;
+import org.lappsgrid.serialization.lif.Container;
+import org.lappsgrid.serialization.lif.View;
+import org.lappsgrid.vocabulary.Features;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.lappsgrid.discriminator.Discriminators.Uri;
+
+public class LingpipePipelineTest {
+
+    protected WebService service;
+
+    @Before
+    public void setUp() throws IOException, ClassNotFoundException {
+        service = new LingpipePipeline();
+    }
+
+    @After
+    public void tearDown() {
+        service = null;
+    }
+
+    @Test
+    public void testGetMetadata() throws Exception {
+        String json = service.getMetadata();
+        assertNotNull("service.getMetadata() returned null", json);
+
+        Data data = Serializer.parse(json, Data.class);
+        assertNotNull("Unable to parse metadata json.", data);
+        assertNotSame(data.getPayload().toString(), Uri.ERROR, data.getDiscriminator());
+
+        ServiceMetadata metadata = new ServiceMetadata((Map) data.getPayload());
+        IOSpecification produces = metadata.getProduces();
+        IOSpecification requires = metadata.getRequires();
+
+        assertEquals("Name is not correct", LingpipePipeline.class.getName(), metadata.getName());
+        assertTrue("Text not accepted", requires.getFormat().contains(Uri.TEXT));
+        assertTrue("Tokens should not be required", requires.getAnnotations() == null
+                || !requires.getAnnotations().contains(Uri.TOKEN));
+
+        List<String> annotations = produces.getAnnotations();
+        assertEquals("Wrong number of annotation types produced", 4, annotations.size());
+        assertTrue("Tokens not produced", annotations.contains(Uri.TOKEN));
+        assertTrue("Sentences not produced", annotations.contains(Uri.SENTENCE));
+        assertTrue("POS not produced", annotations.contains(Uri.POS));
+        assertTrue("NEs not produced", annotations.contains(Uri.NE));
+    }
+
+    @Test
+    public void testExecute() throws Exception {
+        final String text = "Barack Obama is the 44th President of the United States. Who is next?";
+
+        Container container = execute(text);
+        assertEquals("Text not set correctly", text, container.getText());
+
+        List<View> views = container.getViews();
+        if (views.size() != 4) {
+            fail(String.format("Expected 4 views. Found: %d", views.size()));
+        }
+        assertTrue("View 1 does not contain Tokens", views.get(0).contains(Uri.TOKEN));
+        assertTrue("View 2 does not contain Sentences", views.get(1).contains(Uri.SENTENCE));
+        assertTrue("View 3 does not contain POS", views.get(2).contains(Uri.POS));
+        assertTrue("View 4 does not contain NEs", views.get(3).contains(Uri.NE));
+
+        Annotation token = views.get(2).getAnnotations().get(0);
+        assertEquals("Token 1: wrong tag", "np", token.getFeature(Features.Token.PART_OF_SPEECH));
+        Annotation ne = views.get(3).getAnnotations().get(0);
+        assertEquals("NE 1: wrong word", "Barack Obama", ne.getFeature(Features.Token.WORD));
+    }
+
+    @Test
+    public void testReannotate() throws Exception {
+        final String text = "Barack Obama is the 44th President of the United States. Who is next? "
+                + "He met Angela Merkel in Berlin on Monday. The talks went well.";
+        final String word = "Angela Merkel";
+        final int start = text.indexOf(word);
+        final String replacement = "the French President Emmanuel Macron";
+        final String edited = text.substring(0, start) + replacement + text.substring(start + word.length());
+
+        String previous = service.execute(new Data<>(Uri.TEXT, text).asJson());
+        String json = ((LingpipePipeline) service).reannotate(previous, start, start + word.length(), replacement);
+        DataContainer dc = Serializer.parse(json, DataContainer.class);
+        assertEquals("Returned format is not LIF", Uri.LAPPS, dc.getDiscriminator());
+        assertSameAnnotations(execute(edited), dc.getPayload());
+    }
+
+    @Test
+    public void testReannotateSharedAnnotations() throws Exception {
+        final String text = "Barack Obama is the 44th President of the United States. Who is next? "
+                + "He met Angela Merkel in Berlin on Monday.";
+        final int start = text.indexOf("next");
+
+        // The tagger's view shares its annotation objects with the tokenizer's view.
+        LingpipePipeline pipeline = (LingpipePipeline) service;
+        Container container = new Container();
+        container.setText(text);
+        pipeline.annotate(container);
+        pipeline.reannotate(container, start, start + 4, "the next President");
+
+        assertSameAnnotations(execute(container.getText()), container);
+    }
+
+    @Test
+    public void testReannotateDeletePeriod() throws Exception {
+        final String text = "Barack Obama is the 44th President of the United States. Who is next? "
+                + "He met Angela Merkel in Berlin on Monday. The talks went well. They had lunch.";
+        final int start = text.indexOf(". The talks");
+
+        // Merges two sentences: the boundary after the edit moves to the next period.
+        LingpipePipeline pipeline = (LingpipePipeline) service;
+        Container container = execute(text);
+        pipeline.reannotate(container, start, start + 1, "");
+
+        assertSameAnnotations(execute(container.getText()), container);
+    }
+
+    @Test
+    public void testReannotateInsertPeriod() throws Exception {
+        final String text = "Barack Obama is the 44th President of the United States. Who is next? "
+                + "He met Angela Merkel in Berlin on Monday and the talks went well. They had lunch.";
+        final int start = text.indexOf(" and the talks");
+
+        // Splits one sentence in two.
+        LingpipePipeline pipeline = (LingpipePipeline) service;
+        Container container = execute(text);
+        pipeline.reannotate(container, start, start + 4, ". The");
+
+        assertSameAnnotations(execute(container.getText()), container);
+    }
+
+    private static void assertSameAnnotations(Container expected, Container actual) {
+        assertEquals("Text not updated", expected.getText(), actual.getText());
+        assertEquals("Different number of views", expected.getViews().size(), actual.getViews().size());
+        for (int v = 0; v < expected.getViews().size(); v++) {
+            List<Annotation> expectedAnnotations = expected.getViews().get(v).getAnnotations();
+            List<Annotation> actualAnnotations = actual.getViews().get(v).getAnnotations();
+            assertEquals("View " + v + ": different number of annotations",
+                    expectedAnnotations.size(), actualAnnotations.size());
+            for (int i = 0; i < expectedAnnotations.size(); i++) {
+                Annotation e = expectedAnnotations.get(i);
+                Annotation a = actualAnnotations.get(i);
+                String where = String.format("View %d, annotation %d: ", v, i);
+                assertEquals(where + "wrong start", e.getStart(), a.getStart());
+                assertEquals(where + "wrong end", e.getEnd(), a.getEnd());
+                assertEquals(where + "wrong word", e.getFeature(Features.Token.WORD), a.getFeature(Features.Token.WORD));
+                assertEquals(where + "wrong tag", e.getFeature(Features.Token.PART_OF_SPEECH),
+                        a.getFeature(Features.Token.PART_OF_SPEECH));
+            }
+        }
+    }
+
+    protected Container execute(String input) {
+        String json = service.execute(new Data<>(Uri.TEXT, input).asJson());
+        assertNotNull("Service returned null", json);
+        DataContainer dc = Serializer.parse(json, DataContainer.class);
+        assertEquals("Returned format is not LIF", Uri.LAPPS, dc.getDiscriminator());
+        return dc.getPayload();
+    }
+}
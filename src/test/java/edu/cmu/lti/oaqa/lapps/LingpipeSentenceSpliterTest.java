@@ -94,6 +94,23 @@ public class LingpipeSentenceSpliterTest {
         assertEquals("Token 2: wrong end", 69L, ne2.getEnd().longValue());
     }
 
+    @Test
+    public void testExecuteLif() throws Exception {
+        final String text = "Barack Obama is the 44th President of the United States. Who is next?";
+        String tokenized = new LingpipeTokenizer().execute(new Data<>(Uri.TEXT, text).asJson());
+
+        Container container = execute(Serializer.parse(tokenized, DataContainer.class));
+        assertEquals("Text not set correctly", text, container.getText());
+        List<View> views = container.getViews();
+        if (views.size() != 2) {
+            fail(String.format("Expected 2 views. Found: %d", views.size()));
+        }
+        assertTrue("Token view lost", views.get(0).contains(Uri.TOKEN));
+        assertEquals("Tokens changed", 15, views.get(0).getAnnotations().size());
+        assertTrue("View does not contain Sentences", views.get(1).contains(Uri.SENTENCE));
+        assertEquals("Expected 2 Sentences", 2, views.get(1).getAnnotations().size());
+    }
+
 
     protected Container execute(String input) {
         return execute(new Data<>(Uri.TEXT, input));
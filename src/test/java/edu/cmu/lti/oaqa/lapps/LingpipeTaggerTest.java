@@ -15,9 +15,17 @@ import org.lappsgrid.serialization.lif.View;
 import org.lappsgrid.vocabulary.Features;
 import edu.cmu.lti.oaqa.lapps.AbstractLingpipeService;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.Assert.*;
 import static org.lappsgrid.discriminator.Discriminators.Uri;
@@ -100,6 +108,109 @@ public class LingpipeTaggerTest {
         assertEquals("Token 2: wrong word", "nns", ne2.getFeature(Features.Token.PART_OF_SPEECH));
     }
 
+    @Test
+    public void testExecuteMultipleSentences() throws Exception {
+        final String text = "Barack Obama is the 44th President of the United States. Who is next?";
+
+        Container container = execute(text);
+        View view = container.getViews().get(1);
+        List<Annotation> annotations = view.getAnnotations();
+        if (annotations.size() != 15) {
+            fail(String.format("Expected 15 tagged tokens. Found %d", annotations.size()));
+        }
+        for (Annotation annotation : annotations) {
+            assertNotNull("Token not tagged: " + annotation.getStart(),
+                    annotation.getFeature(Features.Token.PART_OF_SPEECH));
+        }
+        assertEquals("Token 1: wrong word", "np", annotations.get(0).getFeature(Features.Token.PART_OF_SPEECH));
+        assertEquals("Token 12: wrong start", 57L, annotations.get(11).getStart().longValue());
+    }
+
+    @Test
+    public void testEmissionCache() throws Exception {
+        final String input = tokenizer.execute(new Data<>(Uri.TEXT,
+                "The cat sat on the mat. The dog sat on the cat.").asJson());
+        LingpipeTagger tagger = (LingpipeTagger) service;
+        assertEquals(LingpipeTagger.DEFAULT_EMISSION_CACHE_SIZE, tagger.getEmissionCacheSize());
+
+        String cached = tagger.execute(input);
+        assertTrue("Repeated tokens not cached", tagger.getEmissionCacheHitRate() > 0.0);
+        assertTrue(tagger.getMetrics().getGauges().containsKey("emission_cache_hit_rate"));
+
+        tagger.setEmissionCacheSize(0);
+        assertEquals(0.0, tagger.getEmissionCacheHitRate(), 0.0);
+        assertEquals("Cache changed the tags", cached, tagger.execute(input));
+    }
+
+    @Test
+    public void testEmissionCacheGaugeCoversAllInstances() throws Exception {
+        final String input = tokenizer.execute(new Data<>(Uri.TEXT,
+                "The cat sat on the mat. The dog sat on the cat.").asJson());
+        LingpipeTagger tagger = (LingpipeTagger) service;
+        tagger.execute(input);
+
+        // A second instance, e.g. for a warm-up, does not take the gauge over.
+        LingpipeTagger other = new LingpipeTagger();
+        assertEquals(0.0, other.getEmissionCacheHitRate(), 0.0);
+        assertTrue("Gauge lost the first tagger's cache",
+                tagger.getMetrics().getGauges().get("emission_cache_hit_rate") > 0.0);
+    }
+
+    @Test
+    public void testExecuteConcurrently() throws Exception {
+        final String[] texts = {
+                "Barack Obama is the 44th President of the United States.",
+                "Who is next?",
+                "The quick brown fox jumps over the lazy dog. It was not amused.",
+                "Stocks fell sharply on Monday as investors worried about rising rates.",
+        };
+        final String[] inputs = new String[texts.length];
+        final String[] expected = new String[texts.length];
+        for (int i = 0; i < texts.length; i++) {
+            inputs[i] = tokenizer.execute(new Data<>(Uri.TEXT, texts[i]).asJson());
+            expected[i] = service.execute(inputs[i]);
+        }
+
+        final int threads = 2 * Runtime.getRuntime().availableProcessors();
+        final int requests = 50;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int offset = t;
+                results.add(executor.submit(() -> {
+                    int mismatches = 0;
+                    for (int r = 0; r < requests; r++) {
+                        int i = (offset + r) % inputs.length;
+                        if (!expected[i].equals(service.execute(inputs[i]))) {
+                            mismatches++;
+                        }
+                    }
+                    return mismatches;
+                }));
+            }
+            for (Future<Integer> result : results) {
+                assertEquals("Output differs under concurrent load", 0, result.get().intValue());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testModelIdCoversModel() throws Exception {
+        LingpipeTagger tagger = (LingpipeTagger) service;
+        String id = tagger.getModelId();
+        File copy = File.createTempFile("tagger", ".model");
+        try (InputStream in = getClass().getResourceAsStream(LingpipeTagger.DEFAULT_MODEL)) {
+            Files.copy(in, copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            tagger.loadTagger(copy.toURI().toURL());
+            assertFalse("Another model shares cache entries", id.equals(tagger.getModelId()));
+        } finally {
+            ModelRegistry.evict(copy.toURI().toURL());
+            copy.delete();
+        }
+    }
 
     protected Container execute(String input) {
         return execute(new Data<>(Uri.TEXT, input));
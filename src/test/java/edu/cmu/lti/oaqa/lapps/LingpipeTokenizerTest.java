@@ -98,6 +98,64 @@ public class LingpipeTokenizerTest {
         assertEquals("Token 2: wrong word", "States", ne2.getFeature(Features.Token.WORD));
     }
 
+    @Test
+    public void testExecuteLif() throws Exception {
+        final String text = "Barack Obama is the 44th President of the United States. Who is next?";
+        List<Annotation> expected = execute(text).getViews().get(0).getAnnotations();
+
+        // LIF input takes the streaming path, which writes the tokens straight from their offsets.
+        Container input = new Container();
+        input.setText(text);
+        Container container = execute(input);
+        List<View> views = container.getViews();
+        if (views.size() != 1) {
+            fail(String.format("Expected 1 view. Found: %d", views.size()));
+        }
+        assertTrue("View does not contain Tokens", views.get(0).contains(Uri.TOKEN));
+        List<Annotation> actual = views.get(0).getAnnotations();
+        assertEquals("Different number of tokens", expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Annotation e = expected.get(i);
+            Annotation a = actual.get(i);
+            assertEquals("Token " + i + ": wrong id", e.getId(), a.getId());
+            assertEquals("Token " + i + ": wrong label", e.getLabel(), a.getLabel());
+            assertEquals("Token " + i + ": wrong start", e.getStart(), a.getStart());
+            assertEquals("Token " + i + ": wrong end", e.getEnd(), a.getEnd());
+            assertEquals("Token " + i + ": wrong word", e.getFeature(Features.Token.WORD), a.getFeature(Features.Token.WORD));
+        }
+    }
+
+    @Test
+    public void testExecuteBatch() throws Exception {
+        String batch = "[" + new Data<>(Uri.TEXT, "Barack Obama is the 44th President.").asJson()
+                + "," + new Data<>("http://example.org/unsupported", "Who is next?").asJson()
+                + "," + new Data<>(Uri.TEXT, "Who is next?").asJson() + "]";
+
+        String json = ((AbstractLingpipeService) service).executeBatch(batch);
+        List<Map> results = Serializer.parse(json, List.class);
+        assertEquals("Expected one result per document", 3, results.size());
+        assertEquals("Document 1 not processed", Uri.LAPPS, results.get(0).get("discriminator"));
+        assertEquals("Document 2 should fail", Uri.ERROR, results.get(1).get("discriminator"));
+        assertEquals("Document 3 not processed", Uri.LAPPS, results.get(2).get("discriminator"));
+
+        Container third = Serializer.parse(Serializer.toJson(results.get(2)), DataContainer.class).getPayload();
+        assertEquals("Results out of order", "Who is next?", third.getText());
+    }
+
+    @Test
+    public void testLongTextOffsetsNotReused() {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() <= LingpipeTokenizer.MAX_REUSED_BUFFER) {
+            sb.append("Barack Obama is the 44th President. ");
+        }
+        TokenOffsets reused = LingpipeTokenizer.tokenize("Who is next?");
+        TokenOffsets offsets = LingpipeTokenizer.tokenize(sb.toString());
+        assertNotSame("Offsets of a long text kept for the thread", reused, offsets);
+        assertEquals(7 * (sb.length() / "Barack Obama is the 44th President. ".length()), offsets.size);
+        assertSame(reused, LingpipeTokenizer.tokenize("Who is next?"));
+        assertEquals(4, reused.size);
+    }
+
 
     protected Container execute(String input) {
         return execute(new Data<>(Uri.TEXT, input));
@@ -0,0 +1,101 @@
+package edu.cmu.lti.oaqa.lapps;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class ModelRegistryTest {
+
+    private File file;
+    private URL url;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("model", ".ser");
+        ArrayList<String> model = new ArrayList<>();
+        model.add("Barack Obama");
+        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(file))) {
+            oos.writeObject(model);
+        }
+        url = file.toURI().toURL();
+    }
+
+    @After
+    public void tearDown() {
+        ModelRegistry.evict(url);
+        file.delete();
+    }
+
+    @Test
+    public void testLoadedOnce() throws Exception {
+        List first = ModelRegistry.get(url, List.class);
+        List second = ModelRegistry.get(url, List.class);
+        assertSame(first, second);
+        assertEquals("Barack Obama", first.get(0));
+
+        ModelRegistry.Model model = ModelRegistry.model(url);
+        assertEquals("Wrong serialized size", file.length(), model.getSerializedBytes());
+        assertTrue("Model not reported", ModelRegistry.models().contains(model));
+    }
+
+    @Test
+    public void testConcurrentLoad() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Object>> futures = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                futures.add(executor.submit((Callable<Object>) () -> ModelRegistry.get(url, List.class)));
+            }
+            Object expected = futures.get(0).get();
+            for (Future<Object> future : futures) {
+                assertSame(expected, future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testPreload() throws Exception {
+        assertTrue("Preload not started", ModelRegistry.preload(url));
+        assertFalse("Model loaded twice", ModelRegistry.preload(url));
+        List first = ModelRegistry.get(url, List.class);
+        assertSame(first, ModelRegistry.get(url, List.class));
+        assertEquals("Barack Obama", first.get(0));
+    }
+
+    @Test
+    public void testPreloadFailure() throws Exception {
+        URL missing = new File(file.getPath() + ".missing").toURI().toURL();
+        assertTrue(ModelRegistry.preload(missing));
+        try {
+            ModelRegistry.get(missing, List.class);
+            fail("Missing model loaded");
+        } catch (IOException e) {
+            // The failure is not kept.
+        }
+        assertFalse("Failed model reported", ModelRegistry.evict(missing));
+    }
+
+    @Test
+    public void testEvict() throws Exception {
+        List first = ModelRegistry.get(url, List.class);
+        assertTrue(ModelRegistry.evict(url));
+        assertFalse(ModelRegistry.evict(url));
+        assertNotSame(first, ModelRegistry.get(url, List.class));
+    }
+}
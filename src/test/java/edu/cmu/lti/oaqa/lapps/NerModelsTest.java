@@ -0,0 +1,174 @@
+package edu.cmu.lti.oaqa.lapps;
+
+import com.aliasi.chunk.ChunkFactory;
+import com.aliasi.chunk.Chunker;
+import com.aliasi.chunk.Chunking;
+import com.aliasi.chunk.ChunkingImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lappsgrid.serialization.Data;
+import org.lappsgrid.serialization.DataContainer;
+import org.lappsgrid.serialization.Serializer;
+import org.lappsgrid.serialization.lif.Annotation;
+import org.lappsgrid.serialization.lif.Container;
+import org.lappsgrid.serialization.lif.View;
+import org.lappsgrid.vocabulary.Features;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.lappsgrid.discriminator.Discriminators.Uri;
+
+public class NerModelsTest {
+
+    private File first;
+    private File second;
+    private NerModels models;
+
+    @Before
+    public void setUp() throws IOException {
+        first = write("FIRST");
+        second = write("SECOND");
+        models = new NerModels();
+        models.register("first", first.toURI().toURL());
+        models.register("second", second.toURI().toURL());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        ModelRegistry.evict(first.toURI().toURL());
+        ModelRegistry.evict(second.toURI().toURL());
+        first.delete();
+        second.delete();
+    }
+
+    @Test
+    public void testLoadedOnFirstUse() throws Exception {
+        assertEquals(0, models.getLoadedCount());
+        Chunker chunker = models.get("first");
+        assertEquals(1, models.getLoadedCount());
+        assertSame(chunker, models.get("first"));
+        assertEquals(Collections.singleton("first"), models.getModelBytes().keySet());
+        assertEquals(first.length(), models.getUsedBytes());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvicted() throws Exception {
+        models.get("first");
+        models.get("second");
+        models.get("first");
+        assertEquals(2, models.getLoadedCount());
+
+        // A budget below one model keeps only the most recently used one.
+        models.setHeapBudget(1);
+        assertEquals(Collections.singleton("first"), models.getModelBytes().keySet());
+
+        models.get("second");
+        assertEquals(Collections.singleton("second"), models.getModelBytes().keySet());
+        assertFalse("Evicted model still in the registry", ModelRegistry.evict(first.toURI().toURL()));
+    }
+
+    @Test
+    public void testPinnedModelKept() throws Exception {
+        URL url = first.toURI().toURL();
+        models.pin(ModelRegistry.model(url));
+        models.register("default", url);
+        models.get("default");
+        models.get("second");
+        assertEquals(first.length() + second.length(), models.getUsedBytes());
+
+        // The pinned model counts against the budget, but only the name is dropped.
+        models.setHeapBudget(second.length());
+        assertEquals(Collections.singleton("second"), models.getModelBytes().keySet());
+        assertEquals(first.length() + second.length(), models.getUsedBytes());
+        assertTrue("Pinned model evicted from the registry", ModelRegistry.evict(url));
+    }
+
+    @Test
+    public void testWarm() throws Exception {
+        models.setWarm(Arrays.asList("first", "second"));
+        models.warm();
+        assertEquals(2, models.getLoadedCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownModel() throws Exception {
+        models.get("third");
+    }
+
+    @Test
+    public void testSelectModelPerRequest() throws Exception {
+        LingpipeNER ner = new LingpipeNER();
+        ner.setModels(models);
+
+        Container container = new Container();
+        container.setText("Barack Obama is the 44th President.");
+        Map<String, Object> metadata = new HashMap<>();
+        metadata.put(LingpipeNER.MODEL, "second");
+        container.setMetadata(metadata);
+        String json = ner.execute(new DataContainer(container).asJson());
+
+        DataContainer data = Serializer.parse(json, DataContainer.class);
+        assertEquals(json, Uri.LAPPS, data.getDiscriminator());
+        View view = data.getPayload().getViews().get(0);
+        assertEquals("second", view.getMetadata().get(LingpipeNER.MODEL));
+        List<Annotation> annotations = view.getAnnotations();
+        assertEquals(1, annotations.size());
+        assertEquals("Barack", annotations.get(0).getFeature(Features.Token.WORD));
+        assertEquals("SECOND", annotations.get(0).getFeature(Features.Token.TYPE));
+
+        metadata.put(LingpipeNER.MODEL, "third");
+        json = ner.execute(new DataContainer(container).asJson());
+        assertEquals(Uri.ERROR, Serializer.parse(json, Data.class).getDiscriminator());
+    }
+
+    private static File write(String type) throws IOException {
+        File file = File.createTempFile("chunker", ".ser");
+        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(file))) {
+            oos.writeObject(new FirstWordChunker(type));
+        }
+        return file;
+    }
+
+    /**
+     * Marks the first word of the text as an entity of a fixed type.
+     */
+    static final class FirstWordChunker implements Chunker, Serializable {
+
+        private final String type;
+
+        FirstWordChunker(String type) {
+            this.type = type;
+        }
+
+        @Override
+        public Chunking chunk(CharSequence cs) {
+            char[] chars = cs.toString().toCharArray();
+            return chunk(chars, 0, chars.length);
+        }
+
+        @Override
+        public Chunking chunk(char[] cs, int start, int end) {
+            ChunkingImpl chunking = new ChunkingImpl(cs, start, end);
+            int wordEnd = start;
+            while (wordEnd < end && !Character.isWhitespace(cs[wordEnd])) {
+                wordEnd++;
+            }
+            if (wordEnd > start) {
+                chunking.add(ChunkFactory.createChunk(0, wordEnd - start, type));
+            }
+            return chunking;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package edu.cmu.lti.oaqa.lapps;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lappsgrid.serialization.Data;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+import static org.lappsgrid.discriminator.Discriminators.Uri;
+
+public class ResultCacheTest {
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("result-cache").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testKey() {
+        assertEquals(64, ResultCache.key("a", "b").length());
+        assertEquals(ResultCache.key("a", "b"), ResultCache.key("a", "b"));
+        assertFalse(ResultCache.key("ab", "").equals(ResultCache.key("a", "b")));
+    }
+
+    @Test
+    public void testLruEviction() {
+        ResultCache cache = new ResultCache(10);
+        cache.put("a", "aaaa");
+        cache.put("b", "bbbb");
+        assertEquals("aaaa", cache.get("a"));
+        cache.put("c", "cccc");
+
+        assertNull("Least recently used entry not evicted", cache.get("b"));
+        assertEquals("aaaa", cache.get("a"));
+        assertEquals("cccc", cache.get("c"));
+        assertEquals(3, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getEvictions());
+        assertEquals(8, cache.chars());
+    }
+
+    @Test
+    public void testDiskTier() {
+        ResultCache cache = new ResultCache(10, directory, 1 << 20);
+        cache.put("a", "aaaa");
+        cache.put("b", "bbbb");
+        cache.put("c", "cccc");
+
+        assertEquals("Evicted entry not spilled to disk", "aaaa", cache.get("a"));
+        assertEquals(1, cache.getDiskHits());
+        assertEquals(0, cache.getMisses());
+    }
+
+    @Test
+    public void testServiceHit() {
+        LingpipeTokenizer service = new LingpipeTokenizer();
+        ResultCache cache = new ResultCache(1 << 20);
+        service.setCache(cache);
+
+        String input = new Data<>(Uri.TEXT, "Barack Obama is the 44th President of the United States.").asJson();
+        String first = service.execute(input);
+        String second = service.execute(input);
+        assertSame("Result not served from the cache", first, second);
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testServiceErrorNotCached() {
+        LingpipeTokenizer service = new LingpipeTokenizer();
+        ResultCache cache = new ResultCache(1 << 20);
+        service.setCache(cache);
+
+        String input = new Data<>("http://example.org/unsupported", "Who is next?").asJson();
+        assertTrue(service.execute(input).contains(Uri.ERROR));
+        assertTrue(service.execute(input).contains(Uri.ERROR));
+        assertEquals("Error result served from the cache", 0, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(0, cache.chars());
+    }
+}
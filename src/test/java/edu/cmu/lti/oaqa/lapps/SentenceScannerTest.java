@@ -0,0 +1,103 @@
+package edu.cmu.lti.oaqa.lapps;
+
+import com.aliasi.chunk.Chunk;
+import com.aliasi.chunk.Chunking;
+import com.aliasi.sentences.IndoEuropeanSentenceModel;
+import com.aliasi.sentences.SentenceChunker;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SentenceScannerTest {
+
+    private static final String[] TEXTS = {
+            "",
+            "   \n\t ",
+            "No stop at all",
+            "One sentence.",
+            "  Leading and trailing whitespace.  Second one!   ",
+            "Mr. Smith went to Washington. He met Dr. Jones there.",
+            "The U.S. economy grew 3.5% in Q2. Analysts (e.g. at J.P. Morgan) were surprised.",
+            "\"Is it true?\" she asked. \"Yes!\" he said.",
+            "Really?! Yes... I think so.. Maybe.",
+            "He left (quietly.) Then she left.",
+            "Ends with a quote.\" And continues.",
+            "Numbers like 1.5 and 2. are odd. a lower case start. Fine.",
+            "Line one.\nLine two.\n\nParagraph two.",
+            ".",
+            ". . .",
+            "A. B. C. D.",
+            "Tabs\tand.\tmore.\tstops.",
+    };
+
+    private final SentenceScanner scanner = LingpipeSentenceSpliter.SENTENCE_SCANNER;
+
+    @Test
+    public void testMatchesChunker() {
+        for (String text : TEXTS) {
+            assertSameSentences(text);
+        }
+    }
+
+    @Test
+    public void testMatchesChunkerOnRandomText() {
+        String[] words = {"The", "cat", "Mr.", "U.S.", "sat", "(on", "mat)", "\"quoted\"", "it.", "so?",
+                "yes!", "...", ".", "e.g.", "3.14", "end.\"", "Dr.", "a", "and", "(see.)"};
+        String[] spaces = {" ", " ", " ", "  ", "\n", "\t", ""};
+        Random random = new Random(42);
+        for (int n = 0; n < 500; n++) {
+            StringBuilder text = new StringBuilder();
+            int length = random.nextInt(40);
+            for (int i = 0; i < length; i++) {
+                text.append(spaces[random.nextInt(spaces.length)]);
+                text.append(words[random.nextInt(words.length)]);
+            }
+            assertSameSentences(text.toString());
+        }
+    }
+
+    @Test
+    public void testOffsetsAreRelativeToStart() {
+        String text = "Skip this. Mr. Smith left. He came back. Skip this too.";
+        char[] cs = text.toCharArray();
+        int start = text.indexOf("Mr.");
+        int end = text.indexOf("Skip this too");
+        assertEquals(spans(LingpipeSentenceSpliter.SENTENCE_CHUNKER.chunk(cs, start, end)),
+                spans(scanner.chunk(cs, start, end)));
+
+        int[] ends = scanner.sentenceEnds(cs, start, end);
+        assertEquals(2, ends.length);
+        assertEquals(text.indexOf("left.") + 5, ends[0]);
+        assertEquals(text.indexOf("back.") + 5, ends[1]);
+    }
+
+    @Test
+    public void testBalancedParensFallBack() {
+        IndoEuropeanSentenceModel model = new IndoEuropeanSentenceModel(false, true);
+        SentenceScanner balancing = new SentenceScanner(LingpipeSentenceSpliter.TOKENIZER_FACTORY, model);
+        String text = "He left (quietly. Really.) Then she left.";
+        char[] cs = text.toCharArray();
+        assertEquals(spans(new SentenceChunker(LingpipeSentenceSpliter.TOKENIZER_FACTORY,
+                model).chunk(cs, 0, cs.length)), spans(balancing.chunk(cs, 0, cs.length)));
+    }
+
+    private void assertSameSentences(String text) {
+        char[] cs = text.toCharArray();
+        List<String> expected = spans(LingpipeSentenceSpliter.SENTENCE_CHUNKER.chunk(cs, 0, cs.length));
+        assertEquals(text, expected, spans(scanner.chunk(cs, 0, cs.length)));
+    }
+
+    private static List<String> spans(Chunking chunking) {
+        List<String> spans = new ArrayList<>();
+        for (Chunk chunk : chunking.chunkSet()) {
+            spans.add(chunk.start() + "-" + chunk.end() + ":" + chunk.type());
+        }
+        Collections.sort(spans);
+        return spans;
+    }
+}
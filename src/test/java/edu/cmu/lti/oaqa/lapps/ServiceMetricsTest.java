@@ -0,0 +1,83 @@
+package edu.cmu.lti.oaqa.lapps;
+
+import org.junit.Test;
+import org.lappsgrid.serialization.Data;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.lappsgrid.discriminator.Discriminators.Uri;
+
+public class ServiceMetricsTest {
+
+    @Test
+    public void testExecute() throws Exception {
+        LingpipeTokenizer service = new LingpipeTokenizer();
+        ServiceMetrics metrics = service.getMetrics();
+        assertSame(metrics, ServiceMetrics.of(LingpipeTokenizer.class));
+        metrics.reset();
+
+        final String text = "Hello world.";
+        service.execute(new Data<>(Uri.TEXT, text).asJson());
+        service.execute(new Data<>(Uri.META, text).asJson());
+
+        assertEquals(1L, metrics.getRequests());
+        assertEquals(1L, metrics.getErrors());
+        assertEquals(text.length(), metrics.getChars());
+        assertEquals(3L, metrics.getAnnotations());
+        assertTrue(metrics.getCharsPerSecond() > 0.0);
+        assertEquals(1L, metrics.getLatency(ServiceMetrics.Stage.INFERENCE).getCount());
+        assertEquals(1L, metrics.getLatency(ServiceMetrics.Stage.TOTAL).getCount());
+
+        Map<String, Double> micros = metrics.getLatencyMicros();
+        assertTrue(micros.containsKey("inference.p99"));
+        assertTrue(micros.containsKey("serialize.max"));
+
+        ObjectName name = new ObjectName(ServiceMetrics.DOMAIN + ":type=ServiceMetrics,name="
+                + ObjectName.quote("LingpipeTokenizer"));
+        assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Requests"));
+
+        StringBuilder output = new StringBuilder();
+        ServiceMetrics.writeText(Collections.singleton(metrics), output);
+        assertTrue(output.toString().contains("# TYPE lingpipe_requests_total counter\n"
+                + "lingpipe_requests_total{service=\"LingpipeTokenizer\"} 1\n"));
+        assertTrue(output.toString().contains("# TYPE lingpipe_latency_seconds summary\n"));
+    }
+
+    @Test
+    public void testLabel() {
+        assertEquals("model=\"file:/a\\\\b\\\"c\\n\"", ServiceMetrics.label("model", "file:/a\\b\"c\n"));
+    }
+
+    @Test
+    public void testRegisterReplaces() throws Exception {
+        ObjectName name = new ObjectName(ServiceMetrics.DOMAIN + ":type=Test,name=" + ObjectName.quote("replaced"));
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ServiceMetrics.register("Test", "replaced", new Probe(1));
+        ServiceMetrics.register("Test", "replaced", new Probe(2));
+        assertEquals(2, server.getAttribute(name, "Value"));
+        server.unregisterMBean(name);
+    }
+
+    public interface ProbeMXBean {
+        int getValue();
+    }
+
+    public static class Probe implements ProbeMXBean {
+
+        private final int value;
+
+        Probe(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public int getValue() {
+            return value;
+        }
+    }
+}
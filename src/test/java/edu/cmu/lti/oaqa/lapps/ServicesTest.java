@@ -0,0 +1,22 @@
+package edu.cmu.lti.oaqa.lapps;
+
+import org.junit.Test;
+import org.lappsgrid.api.ProcessingService;
+
+import static org.junit.Assert.*;
+
+public class ServicesTest {
+
+    @Test
+    public void testShared() throws Exception {
+        String className = AsyncServiceServletTest.Echo.class.getName();
+        ProcessingService service = Services.get(className);
+        assertTrue(service instanceof AsyncServiceServletTest.Echo);
+        assertSame("Service created twice", service, Services.get(className));
+    }
+
+    @Test(expected = ClassNotFoundException.class)
+    public void testUnknownClass() throws Exception {
+        Services.get("edu.cmu.lti.oaqa.lapps.LingpipeParser");
+    }
+}
@@ -0,0 +1,142 @@
+package edu.cmu.lti.oaqa.lapps;
+
+import org.junit.Test;
+import org.lappsgrid.serialization.Data;
+import org.lappsgrid.serialization.DataContainer;
+import org.lappsgrid.serialization.Serializer;
+import org.lappsgrid.serialization.lif.Annotation;
+import org.lappsgrid.serialization.lif.Container;
+import org.lappsgrid.serialization.lif.View;
+import org.lappsgrid.vocabulary.Features;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.lappsgrid.discriminator.Discriminators.Uri;
+
+public class StreamingLifTest {
+
+    private static final String TEXT = "Barack Obama is the 44th President of the United States.";
+
+    private static final StreamingLif.ViewWriter NE_WRITER = (scratch, out) -> {
+        View view = scratch.newView();
+        Annotation a = view.newAnnotation("ne-1", Uri.NE, 0, 12);
+        a.addFeature(Features.Token.WORD, scratch.getText().substring(0, 12));
+        view.addContains(Uri.NE, "test", "ner:test");
+        out.writeRawValue(Serializer.toJson(view));
+    };
+
+    @Test
+    public void testAppendView() throws Exception {
+        Container container = new Container();
+        container.setText(TEXT);
+        View tokens = container.newView();
+        tokens.newAnnotation("tok-1", Uri.TOKEN, 0, 6).addFeature(Features.Token.WORD, "Barack");
+        tokens.addContains(Uri.TOKEN, "test", "tokenizer:test");
+
+        String output = StreamingLif.appendView(new DataContainer(container).asJson(), NE_WRITER);
+        assertNotNull("LIF input not streamed", output);
+
+        Container result = Serializer.parse(output, DataContainer.class).getPayload();
+        assertEquals("Text not copied", TEXT, result.getText());
+        List<View> views = result.getViews();
+        assertEquals("Expected 2 views", 2, views.size());
+        assertEquals("Existing view changed", "Barack",
+                views.get(0).getAnnotations().get(0).getFeature(Features.Token.WORD));
+        assertTrue("View does not contain NEs", views.get(1).contains(Uri.NE));
+        assertFalse("View ids are not unique", views.get(0).getId().equals(views.get(1).getId()));
+        assertEquals("Barack Obama", views.get(1).getAnnotations().get(0).getFeature(Features.Token.WORD));
+    }
+
+    @Test
+    public void testAppendViewIdUnique() throws Exception {
+        Container container = new Container();
+        container.setText(TEXT);
+        container.newView("v1").addContains(Uri.TOKEN, "test", "tokenizer:test");
+        container.newView("v3").addContains(Uri.POS, "test", "tagger:test");
+
+        String output = StreamingLif.appendView(new DataContainer(container).asJson(), NE_WRITER);
+        List<View> views = Serializer.parse(output, DataContainer.class).getPayload().getViews();
+        assertEquals("Expected 3 views", 3, views.size());
+        String id = views.get(2).getId();
+        assertFalse("View id " + id + " already used", id.equals("v1") || id.equals("v3"));
+    }
+
+    @Test
+    public void testSentenceViewRead() throws Exception {
+        final String text = "Barack Obama is the 44th President. He lives in Washington.";
+        Container container = new Container();
+        container.setText(text);
+        View sentences = container.newView();
+        sentences.newAnnotation("s-1", Uri.SENTENCE, 0, 35);
+        sentences.newAnnotation("s-2", Uri.SENTENCE, 36, text.length());
+        sentences.addContains(Uri.SENTENCE, LingpipeSentenceSpliter.class.getName(), "splitter:test");
+        View other = container.newView();
+        other.newAnnotation("s-1", Uri.SENTENCE, 0, text.length());
+        other.addContains(Uri.SENTENCE, "another splitter", "splitter:test");
+        String input = new DataContainer(container).asJson();
+
+        final int[][] ends = new int[1][];
+        StreamingLif.ViewWriter writer = (scratch, out) -> {
+            ends[0] = LingpipeNER.splitterSentenceEnds(scratch);
+            NE_WRITER.write(scratch, out);
+        };
+        StreamingLif.appendView(input, writer, true);
+        assertArrayEquals(new int[]{35, text.length()}, ends[0]);
+
+        StreamingLif.appendView(input, writer, false);
+        assertNull("Sentences read without a request", ends[0]);
+    }
+
+    @Test
+    public void testAppendFirstView() throws Exception {
+        Container container = new Container();
+        container.setText(TEXT);
+
+        String output = StreamingLif.appendView(new DataContainer(container).asJson(), NE_WRITER);
+        Container result = Serializer.parse(output, DataContainer.class).getPayload();
+        assertEquals("Expected 1 view", 1, result.getViews().size());
+    }
+
+    @Test
+    public void testDiscriminator() throws Exception {
+        assertEquals(Uri.TEXT, StreamingLif.discriminator(new Data<>(Uri.TEXT, TEXT).asJson()));
+        assertEquals(Uri.ERROR, StreamingLif.discriminator(AbstractLingpipeService.error("failed")));
+        assertNull(StreamingLif.discriminator("{\"payload\":{\"discriminator\":\"nested\"}}"));
+    }
+
+    @Test
+    public void testTextInputNotStreamed() throws Exception {
+        assertNull(StreamingLif.appendView(new Data<>(Uri.TEXT, TEXT).asJson(), NE_WRITER));
+    }
+
+    @Test
+    public void testTextToLif() throws Exception {
+        final String text = "\"Quoted\" text\nwith a line break and \u00e9.";
+        String output = StreamingLif.textToLif(new Data<>(Uri.TEXT, text).asJson(), NE_WRITER);
+        assertNotNull("Text input not written directly", output);
+
+        Container expected = new Container();
+        expected.setText(text);
+        View view = expected.newView();
+        Annotation a = view.newAnnotation("ne-1", Uri.NE, 0, 12);
+        a.addFeature(Features.Token.WORD, text.substring(0, 12));
+        view.addContains(Uri.NE, "test", "ner:test");
+        assertEquals("Differs from the object model output", new DataContainer(expected).asJson(),
+                Serializer.parse(output, DataContainer.class).asJson());
+
+        // The per-thread buffer is reused without leaking the previous output.
+        String second = StreamingLif.textToLif(new Data<>(Uri.TEXT, TEXT).asJson(), NE_WRITER);
+        Container result = Serializer.parse(second, DataContainer.class).getPayload();
+        assertEquals(TEXT, result.getText());
+        assertEquals(1, result.getViews().size());
+    }
+
+    @Test
+    public void testLifInputNotWrittenAsText() throws Exception {
+        Container container = new Container();
+        container.setText(TEXT);
+        assertNull(StreamingLif.textToLif(new DataContainer(container).asJson(), NE_WRITER));
+        assertNull(StreamingLif.textToLif(new Data<>(Uri.TEXT, "").asJson(), NE_WRITER));
+    }
+}
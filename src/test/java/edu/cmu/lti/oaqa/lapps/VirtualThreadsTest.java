@@ -0,0 +1,46 @@
+package edu.cmu.lti.oaqa.lapps;
+
+import org.junit.Test;
+import org.lappsgrid.serialization.Data;
+import org.lappsgrid.serialization.DataContainer;
+import org.lappsgrid.serialization.Serializer;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+import static org.lappsgrid.discriminator.Discriminators.Uri;
+
+public class VirtualThreadsTest {
+
+    @Test
+    public void testPlatformThreadIsNotVirtual() {
+        assertFalse(VirtualThreads.isVirtual(Thread.currentThread()));
+    }
+
+    @Test
+    public void testExecuteOnVirtualThread() throws Exception {
+        assumeTrue(VirtualThreads.isSupported());
+        final LingpipeTokenizer tokenizer = new LingpipeTokenizer();
+        ExecutorService executor = VirtualThreads.newPerTaskExecutor("test-");
+        try {
+            Future<Boolean> virtual = executor.submit(() -> VirtualThreads.isVirtual(Thread.currentThread()));
+            assertTrue(virtual.get());
+
+            String input = new Data<>(Uri.TEXT, "Barack Obama is the 44th President.").asJson();
+            Future<String> output = executor.submit(() -> tokenizer.execute(input));
+            DataContainer data = Serializer.parse(output.get(), DataContainer.class);
+            assertEquals(Uri.LAPPS, data.getDiscriminator());
+            assertEquals(7, data.getPayload().getViews().get(0).getAnnotations().size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testUnsupportedBeforeJava21() {
+        assumeTrue(!VirtualThreads.isSupported());
+        VirtualThreads.newPerTaskExecutor("test-");
+    }
+}
@@ -0,0 +1,77 @@
+package edu.cmu.lti.oaqa.lapps;
+
+import org.junit.Test;
+import org.lappsgrid.serialization.Data;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.lappsgrid.discriminator.Discriminators.Uri;
+
+public class WarmupTest {
+
+    @Test
+    public void testWarmUp() {
+        LingpipeTokenizer tokenizer = new LingpipeTokenizer();
+        tokenizer.execute(new Data<>(Uri.TEXT, "Who is next?").asJson());
+        long requests = tokenizer.getMetrics().getRequests();
+        Warmup.Result result = Warmup.run(tokenizer, 5000);
+        assertTrue("No round ran", result.getRounds() >= 1);
+        assertTrue(result.getCharsPerSecond() > 0.0);
+        assertEquals(Warmup.State.READY, Warmup.states().get(LingpipeTokenizer.class.getName()));
+        // Warm-up requests are not counted, and earlier traffic is not forgotten.
+        assertTrue(requests >= 1);
+        assertEquals("Warm-up requests in the metrics", requests, tokenizer.getMetrics().getRequests());
+    }
+
+    @Test
+    public void testWarmUpNerPaths() throws Exception {
+        LingpipeNER parallel = new LingpipeNER();
+        parallel.setParallel(true);
+        NerModels models = new NerModels();
+        models.setModels(Collections.singletonMap("news", LingpipeNER.DEFAULT_MODEL));
+        models.setWarm(Collections.singletonList("news"));
+        parallel.setModels(models);
+
+        long requests = parallel.getMetrics().getRequests();
+        Warmup.Result result = Warmup.run(parallel, 5000);
+        assertTrue(result.getRounds() >= 1);
+        assertEquals("Selected model not loaded", 1, models.getLoadedCount());
+        assertEquals(requests, parallel.getMetrics().getRequests());
+    }
+
+    @Test
+    public void testNotReadyUntilWarm() {
+        String name = LingpipeSentenceSpliter.class.getName();
+        Warmup.expect(name);
+        assertEquals(Warmup.State.WARMING, Warmup.states().get(name));
+        assertFalse(Warmup.isReady());
+
+        new LingpipeSentenceSpliter().warmUp();
+        assertEquals(Warmup.State.READY, Warmup.states().get(name));
+        assertTrue(Warmup.isReady());
+    }
+
+    @Test
+    public void testWarmUpNeedsTokens() throws Exception {
+        // The tagger reads the token view, so it is warmed up with tokenized LIF.
+        Warmup.Result result = Warmup.run(new LingpipeTagger(), 2000);
+        assertTrue(result.getRounds() >= 1);
+        assertEquals(Warmup.State.READY, Warmup.states().get(LingpipeTagger.class.getName()));
+    }
+
+    @Test
+    public void testSentences() {
+        List<String> sentences = Warmup.sentences();
+        assertEquals(8, sentences.size());
+        assertEquals("Who is next?", sentences.get(5));
+    }
+
+    @Test
+    public void testCorpus() {
+        List<String> corpus = Warmup.corpus();
+        assertEquals(3, corpus.size());
+        assertTrue(corpus.get(2).length() >= 4 * LingpipeNER.MIN_SEGMENT_LENGTH);
+    }
+}